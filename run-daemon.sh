@@ -0,0 +1,34 @@
+#!/bin/bash
+
+# Spotify Connector Headless Sync Daemon
+# Compiles the connector and runs the headless sync daemon (no JavaFX required)
+# Any arguments are passed to the daemon, e.g. ./run-daemon.sh --once --workers 8
+
+# Check if Java is installed
+if ! command -v java &> /dev/null; then
+    echo "Error: Java is not installed or not in PATH"
+    echo "Please install Java 11 or higher"
+    exit 1
+fi
+
+# Check if Maven is installed
+if ! command -v mvn &> /dev/null; then
+    echo "Error: Maven is not installed or not in PATH"
+    echo "Please install Maven 3.6 or higher"
+    exit 1
+fi
+
+# Compile the application and resolve the runtime classpath
+echo "Compiling application..."
+mvn -q compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+
+if [ $? -ne 0 ]; then
+    echo "Compilation failed. Please check the error messages above."
+    exit 1
+fi
+
+# A small heap is enough: history is streamed to disk, not kept in memory
+JAVA_OPTS=${JAVA_OPTS:-"-Xmx96m -Xss512k -XX:+UseSerialGC"}
+
+exec java $JAVA_OPTS -cp "target/classes:$(cat target/classpath.txt)" \
+    com.spotifyconnector.daemon.HeadlessSyncDaemon "$@"
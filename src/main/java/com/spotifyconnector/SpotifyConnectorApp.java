@@ -1,6 +1,8 @@
 package com.spotifyconnector;
 
 import com.spotifyconnector.gui.SpotifyConnectorController;
+import com.spotifyconnector.metrics.FlightRecording;
+import com.spotifyconnector.metrics.MetricsServer;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -10,13 +12,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
- * Main application class for Spotify Connector
+ * Main application class for Spotify Connector.
+ * Pass {@code --jfr <file>} to record the session with Java Flight Recorder.
  */
 public class SpotifyConnectorApp extends Application {
     private static final Logger logger = LoggerFactory.getLogger(SpotifyConnectorApp.class);
     
+    private MetricsServer metricsServer;
+    
     @Override
     public void start(Stage primaryStage) {
         try {
@@ -36,6 +42,8 @@ public class SpotifyConnectorApp extends Application {
             
             logger.info("Spotify Connector application started successfully");
             
+            metricsServer = MetricsServer.startIfEnabled(MetricsServer.configuredPort());
+            
         } catch (IOException e) {
             logger.error("Failed to start application", e);
             System.err.println("Failed to start application: " + e.getMessage());
@@ -45,6 +53,10 @@ public class SpotifyConnectorApp extends Application {
     @Override
     public void stop() {
         logger.info("Spotify Connector application shutting down");
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        FlightRecording.stopActive();
     }
     
     public static void main(String[] args) {
@@ -56,6 +68,16 @@ public class SpotifyConnectorApp extends Application {
         System.setProperty("javafx.animation.pulse", "60");
         System.setProperty("javafx.animation.quantum", "16666666");
         
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("--jfr".equals(args[i])) {
+                try {
+                    FlightRecording.start(Paths.get(args[i + 1]));
+                } catch (IOException e) {
+                    logger.error("Could not start flight recording: {}", e.getMessage());
+                }
+            }
+        }
+        
         logger.info("Starting Spotify Connector application...");
         launch(args);
     }
@@ -15,6 +15,7 @@ public class SpotifyConfig {
     private String clientSecret;
     private String redirectUri;
     private String scope;
+    private Properties properties = new Properties();
     
     private static SpotifyConfig instance;
     
@@ -56,6 +57,7 @@ public class SpotifyConfig {
         this.clientSecret = props.getProperty("spotify.client.secret", "");
         this.redirectUri = props.getProperty("spotify.redirect.uri", "http://localhost:8080/callback");
         this.scope = props.getProperty("spotify.scope", "user-read-recently-played user-top-read user-read-private");
+        this.properties = props;
     }
     
     /**
@@ -123,6 +125,57 @@ public class SpotifyConfig {
         return scope;
     }
     
+    /**
+     * Get a raw configuration value, allowing a system property of the same name to override the file
+     */
+    public String getProperty(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+    
+    /**
+     * Get an integer configuration value, falling back to the default if missing or malformed
+     */
+    public int getIntProperty(String key, int defaultValue) {
+        String value = getProperty(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Get a long configuration value, falling back to the default if missing or malformed
+     */
+    public long getLongProperty(String key, long defaultValue) {
+        String value = getProperty(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Get a boolean configuration value
+     */
+    public boolean getBooleanProperty(String key, boolean defaultValue) {
+        String value = getProperty(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+    
     // Setters for runtime configuration
     public void setClientId(String clientId) {
         this.clientId = clientId;
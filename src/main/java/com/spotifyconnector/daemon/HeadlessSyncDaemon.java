@@ -0,0 +1,346 @@
+package com.spotifyconnector.daemon;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.metrics.FlightRecording;
+import com.spotifyconnector.metrics.MetricsServer;
+import com.spotifyconnector.model.TokenSet;
+import com.spotifyconnector.service.MultiAccountSyncEngine;
+import com.spotifyconnector.service.RecentlyPlayedSync;
+import com.spotifyconnector.service.SpotifyAuthService;
+import com.spotifyconnector.service.SpotifyDataService;
+import com.spotifyconnector.service.SpotifyHttpTransport;
+import com.spotifyconnector.service.TokenManager;
+import com.spotifyconnector.store.JsonLinesPlayHistoryStore;
+import com.spotifyconnector.store.PlayHistoryStore;
+import com.spotifyconnector.store.SegmentedPlayHistoryStore;
+import com.spotifyconnector.store.SyncCursorStore;
+import com.spotifyconnector.store.SyncJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless entry point that periodically syncs the recently played history of a set of
+ * accounts into a local store. It never touches JavaFX, so it runs on servers without a
+ * display and with a small heap.
+ *
+ * Accounts are read from a properties file of {@code userId=refreshToken} lines, re-read on
+ * every cycle so accounts can be added, removed or given a new refresh token without a
+ * restart. Each account's tokens are kept current by a {@link TokenManager}; rotated refresh
+ * tokens are written back to the file.
+ * Accounts are synced in parallel by the {@link MultiAccountSyncEngine}, with
+ * {@code --workers} capping the accounts synced at once. With {@code --metrics-port} the API metrics
+ * are served as text on the loopback interface; with {@code --jfr} the run is recorded with
+ * Java Flight Recorder into the given file, written when the daemon stops.
+ *
+ * Usage: {@code HeadlessSyncDaemon [--accounts file] [--store dir] [--workers n] [--interval seconds] [--metrics-port port] [--jfr file] [--once]}
+ */
+public class HeadlessSyncDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessSyncDaemon.class);
+    
+    private final Path accountsFile;
+    private final long intervalSeconds;
+    private final SpotifyAuthService authService;
+    private final MultiAccountSyncEngine engine;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, ManagedAccount> managedAccounts = new ConcurrentHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final PlayHistoryStore historyStore;
+    private final SyncJournal journal;
+    
+    public HeadlessSyncDaemon(Path accountsFile, Path storeDirectory, int workerCount, long intervalSeconds) throws IOException {
+        this.accountsFile = accountsFile;
+        this.intervalSeconds = intervalSeconds;
+        this.authService = new SpotifyAuthService();
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        // With the journal, plays and cursors are forced at checkpoints instead of on every page
+        boolean journaled = config.getBooleanProperty("spotify.wal.enabled", true);
+        this.historyStore = "jsonl".equals(config.getProperty("spotify.store.format", "segmented"))
+                ? new JsonLinesPlayHistoryStore(storeDirectory.resolve("history"))
+                : new SegmentedPlayHistoryStore(storeDirectory.resolve("plays"),
+                        !journaled && config.getBooleanProperty("spotify.store.fsync", true));
+        SyncCursorStore cursorStore = new SyncCursorStore(storeDirectory.resolve("sync-cursors.properties"));
+        if (historyStore instanceof SegmentedPlayHistoryStore) {
+            ((SegmentedPlayHistoryStore) historyStore).startCompaction();
+        }
+        this.journal = journaled ? new SyncJournal(storeDirectory.resolve("sync.wal"), historyStore, cursorStore) : null;
+        SpotifyDataService dataService = new SpotifyDataService();
+        RecentlyPlayedSync sync = new RecentlyPlayedSync(dataService, historyStore, cursorStore, journal);
+        this.engine = new MultiAccountSyncEngine(dataService, sync, workerCount);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("spotify-sync-scheduler"));
+    }
+    
+    public static void main(String[] args) throws Exception {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        Path stateDirectory = RecentlyPlayedSync.defaultStateDirectory();
+        Path accountsFile = Paths.get(config.getProperty("spotify.daemon.accounts",
+                stateDirectory.resolve("accounts.properties").toString()));
+        Path storeDirectory = stateDirectory;
+        int workerCount = config.getIntProperty("spotify.daemon.workers", 4);
+        long intervalSeconds = config.getLongProperty("spotify.daemon.intervalSeconds", 900);
+        int metricsPort = MetricsServer.configuredPort();
+        Path jfrFile = null;
+        boolean once = false;
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--accounts":
+                    accountsFile = Paths.get(value(args, ++i));
+                    break;
+                case "--store":
+                    storeDirectory = Paths.get(value(args, ++i));
+                    break;
+                case "--workers":
+                    workerCount = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--interval":
+                    intervalSeconds = Long.parseLong(value(args, ++i));
+                    break;
+                case "--metrics-port":
+                    metricsPort = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--jfr":
+                    jfrFile = Paths.get(value(args, ++i));
+                    break;
+                case "--once":
+                    once = true;
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.err.println("Usage: HeadlessSyncDaemon [--accounts file] [--store dir] [--workers n] [--interval seconds] [--metrics-port port] [--jfr file] [--once]");
+                    System.exit(2);
+            }
+        }
+        
+        if (!config.isValid()) {
+            System.err.println("Spotify client id and secret are not configured");
+            System.exit(1);
+        }
+        
+        HeadlessSyncDaemon daemon = new HeadlessSyncDaemon(accountsFile, storeDirectory, workerCount, intervalSeconds);
+        MetricsServer metricsServer = MetricsServer.startIfEnabled(metricsPort);
+        if (jfrFile != null) {
+            FlightRecording.start(jfrFile);
+        }
+        try {
+            if (once) {
+                daemon.runCycle();
+                daemon.stop();
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "spotify-sync-shutdown"));
+            daemon.start();
+            daemon.awaitStop();
+        } finally {
+            if (metricsServer != null) {
+                metricsServer.stop();
+            }
+            FlightRecording.stopActive();
+        }
+    }
+    
+    /**
+     * Run a sync cycle now and then every interval until stopped
+     */
+    public void start() {
+        logger.info("Starting headless sync: accounts={}, interval={} s", accountsFile, intervalSeconds);
+        scheduler.scheduleWithFixedDelay(this::runCycleSafely, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    public void stop() {
+        FlightRecording.stopActive();
+        managedAccounts.values().forEach(account -> account.tokens.close());
+        scheduler.shutdownNow();
+        engine.shutdown();
+        SpotifyHttpTransport.getInstance().shutdown();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Could not checkpoint sync journal: {}", e.getMessage());
+            }
+        }
+        if (historyStore instanceof SegmentedPlayHistoryStore) {
+            try {
+                ((SegmentedPlayHistoryStore) historyStore).close();
+            } catch (IOException e) {
+                logger.warn("Could not close play history: {}", e.getMessage());
+            }
+        }
+        stopped.countDown();
+    }
+    
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+    
+    /**
+     * Sync every configured account once, in parallel
+     */
+    public MultiAccountSyncEngine.SyncReport runCycle() throws IOException, InterruptedException {
+        List<MultiAccountSyncEngine.Account> accounts = new ArrayList<>();
+        synchronized (this) {
+            Map<String, String> refreshTokens = loadAccounts();
+            reconcile(refreshTokens);
+            for (String userId : refreshTokens.keySet()) {
+                accounts.add(new MultiAccountSyncEngine.Account(userId, managedAccounts.get(userId).tokens));
+            }
+        }
+        
+        AtomicLong added = new AtomicLong();
+        MultiAccountSyncEngine.SyncReport report = engine.syncAll(accounts, result -> {
+            added.addAndGet(result.getHistory().getAdded());
+            logger.debug("Synced {}", result.getHistory());
+        });
+        logger.info("Sync cycle finished: {}, {} new plays", report, added.get());
+        return report;
+    }
+    
+    /**
+     * Bring the token managers in line with the accounts file: accounts no longer listed are
+     * dropped, and an account whose refresh token was edited (e.g. after revoking the old one)
+     * gets a new manager instead of carrying on with the old token.
+     */
+    private void reconcile(Map<String, String> refreshTokens) {
+        Iterator<Map.Entry<String, ManagedAccount>> managed = managedAccounts.entrySet().iterator();
+        while (managed.hasNext()) {
+            Map.Entry<String, ManagedAccount> entry = managed.next();
+            String refreshToken = refreshTokens.get(entry.getKey());
+            if (refreshToken == null) {
+                logger.info("Account {} was removed from {}, no longer syncing it", entry.getKey(), accountsFile);
+            } else if (!refreshToken.equals(entry.getValue().refreshToken)) {
+                logger.info("Refresh token of {} was changed in {}, starting a new session", entry.getKey(), accountsFile);
+            } else {
+                continue;
+            }
+            entry.getValue().tokens.close();
+            managed.remove();
+        }
+        for (Map.Entry<String, String> entry : refreshTokens.entrySet()) {
+            managedAccounts.computeIfAbsent(entry.getKey(), userId -> newAccount(userId, entry.getValue()));
+        }
+    }
+    
+    private ManagedAccount newAccount(String userId, String refreshToken) {
+        ManagedAccount account = new ManagedAccount(
+                new TokenManager(authService, TokenSet.fromRefreshToken(refreshToken)), refreshToken);
+        account.tokens.setOnRefresh(tokens -> {
+            String rotated = tokens.getRefreshToken();
+            if (rotated != null && !rotated.equals(account.refreshToken)) {
+                saveRefreshToken(userId, account, rotated);
+            }
+        });
+        return account;
+    }
+    
+    /**
+     * Persist a rotated refresh token back to the accounts file. Holding the daemon's lock,
+     * the file and the account's recorded token change together, so a cycle reading the
+     * file in between never mistakes the rotation for an edit.
+     */
+    private synchronized void saveRefreshToken(String userId, ManagedAccount account, String refreshToken) {
+        if (managedAccounts.get(userId) != account) {
+            // Replaced or removed since this refresh started; the file now belongs to its successor
+            return;
+        }
+        try {
+            Properties properties = new Properties();
+            if (Files.exists(accountsFile)) {
+                try (InputStream input = Files.newInputStream(accountsFile)) {
+                    properties.load(input);
+                }
+            }
+            properties.setProperty(userId, refreshToken);
+            Path parent = accountsFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, accountsFile.getFileName().toString(), ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                properties.store(output, "Spotify accounts (userId=refreshToken)");
+            }
+            Files.move(temp, accountsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            account.refreshToken = refreshToken;
+            logger.info("Stored rotated refresh token for {}", userId);
+        } catch (IOException e) {
+            logger.error("Could not store rotated refresh token for {}: {}", userId, e.getMessage());
+        }
+    }
+    
+    private void runCycleSafely() {
+        try {
+            runCycle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Sync cycle failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private Map<String, String> loadAccounts() throws IOException {
+        Map<String, String> accounts = new TreeMap<>();
+        if (!Files.exists(accountsFile)) {
+            logger.warn("Accounts file {} does not exist, nothing to sync", accountsFile);
+            return accounts;
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(accountsFile)) {
+            properties.load(input);
+        }
+        for (String userId : properties.stringPropertyNames()) {
+            String refreshToken = properties.getProperty(userId).trim();
+            if (!refreshToken.isEmpty()) {
+                accounts.put(userId, refreshToken);
+            }
+        }
+        return accounts;
+    }
+    
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+    
+    /**
+     * One account's token manager and the refresh token the accounts file holds for it
+     */
+    private static final class ManagedAccount {
+        final TokenManager tokens;
+        volatile String refreshToken;
+        
+        ManagedAccount(TokenManager tokens, String refreshToken) {
+            this.tokens = tokens;
+            this.refreshToken = refreshToken;
+        }
+    }
+    
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,9 +1,17 @@
 package com.spotifyconnector.gui;
 
+import com.spotifyconnector.metrics.FlightRecording;
+import com.spotifyconnector.metrics.UiLoadEvent;
 import com.spotifyconnector.model.*;
+import com.spotifyconnector.service.RecentlyPlayedSync;
 import com.spotifyconnector.service.SpotifyAuthService;
+import com.spotifyconnector.service.SpotifyDataCache;
 import com.spotifyconnector.service.SpotifyDataService;
+import com.spotifyconnector.service.TokenManager;
 import com.spotifyconnector.service.CallbackServer;
+import com.spotifyconnector.store.EntityKind;
+import com.spotifyconnector.store.PlayHistoryStore;
+import com.spotifyconnector.store.SegmentedPlayHistoryStore;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -21,10 +29,19 @@ import javafx.scene.text.FontWeight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Main controller for the Spotify Connector GUI
@@ -32,13 +49,20 @@ import java.util.concurrent.CompletableFuture;
 public class SpotifyConnectorController implements Initializable {
     private static final Logger logger = LoggerFactory.getLogger(SpotifyConnectorController.class);
     
+    private static final int ENTITY_PLAYS_LIMIT = 500;
+    private static final int LOAD_THREADS = 4;
+    
     private SpotifyAuthService authService;
     private SpotifyDataService dataService;
+    private SpotifyDataCache dataCache;
     private CallbackServer callbackServer;
-    private String accessToken;
+    private TokenManager tokenManager;
     private UserProfile currentUser;
+    private PlayHistoryStore historyStore;
+    private final ExecutorService loadExecutor = newLoadExecutor();
     
     // FXML injected components
+    @FXML private MenuItem flightRecordingMenuItem;
     @FXML private TabPane mainTabPane;
     @FXML private Tab loginTab;
     @FXML private Tab recentlyPlayedTab;
@@ -105,10 +129,13 @@ public class SpotifyConnectorController implements Initializable {
     public void initialize(URL location, ResourceBundle resources) {
         authService = new SpotifyAuthService();
         dataService = new SpotifyDataService();
+        dataCache = new SpotifyDataCache(dataService);
+        historyStore = openHistoryStore();
         
         setupUI();
         // setupTableColumns(); // Temporarily commented out for testing
         setupEventHandlers();
+        updateFlightRecordingMenu();
         
         // Check if configuration is valid
         if (authService.isConfigurationValid()) {
@@ -127,6 +154,11 @@ public class SpotifyConnectorController implements Initializable {
         
         // Setup recently played tab
         recentlyPlayedTable.setPlaceholder(new Label("No recently played tracks available"));
+        recentlyPlayedTable.setRowFactory(table -> {
+            TableRow<PlayHistoryItem> row = new TableRow<>();
+            row.itemProperty().addListener((obs, oldItem, item) -> row.setContextMenu(drillDownMenu(item)));
+            return row;
+        });
         recentLimitCombo.setItems(FXCollections.observableArrayList(10, 20, 50));
         recentLimitCombo.setValue(20);
         
@@ -134,14 +166,14 @@ public class SpotifyConnectorController implements Initializable {
         topArtistsTable.setPlaceholder(new Label("No top artists available"));
         artistTimeRangeCombo.setItems(FXCollections.observableArrayList("short_term", "medium_term", "long_term"));
         artistTimeRangeCombo.setValue("medium_term");
-        artistLimitCombo.setItems(FXCollections.observableArrayList(10, 20, 50));
+        artistLimitCombo.setItems(FXCollections.observableArrayList(10, 20, 50, 100, 200));
         artistLimitCombo.setValue(20);
         
         // Setup top tracks tab
         topTracksTable.setPlaceholder(new Label("No top tracks available"));
         trackTimeRangeCombo.setItems(FXCollections.observableArrayList("short_term", "medium_term", "long_term"));
         trackTimeRangeCombo.setValue("medium_term");
-        trackLimitCombo.setItems(FXCollections.observableArrayList(10, 20, 50));
+        trackLimitCombo.setItems(FXCollections.observableArrayList(10, 20, 50, 100, 200));
         trackLimitCombo.setValue(20);
         
         // Setup profile tab
@@ -205,6 +237,19 @@ public class SpotifyConnectorController implements Initializable {
         refreshTracksButton.setOnAction(e -> loadTopTracks());
         refreshProfileButton.setOnAction(e -> loadUserProfile());
         spotifyProfileButton.setOnAction(e -> openSpotifyProfile());
+        
+        // Repaint from the cache on tab switches; stale entries revalidate in the background
+        mainTabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
+            if (newTab == recentlyPlayedTab) {
+                loadRecentlyPlayed(false);
+            } else if (newTab == topArtistsTab) {
+                loadTopArtists(false);
+            } else if (newTab == topTracksTab) {
+                loadTopTracks(false);
+            } else if (newTab == userProfileTab) {
+                loadUserProfile(false);
+            }
+        });
     }
     
     @FXML
@@ -264,44 +309,43 @@ public class SpotifyConnectorController implements Initializable {
             return;
         }
         
-        Task<String> connectTask = new Task<String>() {
-            @Override
-            protected String call() throws Exception {
-                updateMessage("Connecting to Spotify...");
-                return authService.exchangeCodeForToken(authCode);
+        statusLabel.setText("Connecting to Spotify...");
+        authService.exchangeCodeForTokensAsync(authCode).whenComplete((tokens, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                statusLabel.setText("Connection failed: " + cause.getMessage());
+                statusLabel.setStyle("-fx-text-fill: red;");
+                return;
             }
             
-            @Override
-            protected void succeeded() {
-                accessToken = getValue();
-                statusLabel.setText("Successfully connected to Spotify!");
-                statusLabel.setStyle("-fx-text-fill: green;");
-                
-                // Switch to data tabs
-                mainTabPane.getTabs().remove(loginTab);
-                mainTabPane.getSelectionModel().select(recentlyPlayedTab);
-                
-                // Load initial data
-                loadUserProfile();
-                loadRecentlyPlayed();
-                loadTopArtists();
-                loadTopTracks();
+            if (tokenManager != null) {
+                tokenManager.close();
             }
+            tokenManager = new TokenManager(authService, tokens);
+            statusLabel.setText("Successfully connected to Spotify!");
+            statusLabel.setStyle("-fx-text-fill: green;");
             
-            @Override
-            protected void failed() {
-                statusLabel.setText("Connection failed: " + getException().getMessage());
-                statusLabel.setStyle("-fx-text-fill: red;");
-            }
-        };
-        
-        new Thread(connectTask).start();
+            // Switch to data tabs
+            mainTabPane.getTabs().remove(loginTab);
+            mainTabPane.getSelectionModel().select(recentlyPlayedTab);
+            
+            // Load initial data
+            loadUserProfile();
+            loadRecentlyPlayed();
+            loadTopArtists();
+            loadTopTracks();
+        }));
     }
     
     @FXML
     private void loadRecentlyPlayed() {
-        if (accessToken == null) return;
+        loadRecentlyPlayed(true);
+    }
+    
+    private void loadRecentlyPlayed(boolean revalidate) {
+        if (tokenManager == null) return;
         
+        UiLoadEvent loadEvent = UiLoadEvent.start("recentlyPlayed", revalidate);
         Task<RecentlyPlayedResponse> task = new Task<RecentlyPlayedResponse>() {
             @Override
             protected RecentlyPlayedResponse call() throws Exception {
@@ -310,32 +354,46 @@ public class SpotifyConnectorController implements Initializable {
                 if (limit == null) {
                     limit = 20; // Default value
                 }
-                return dataService.getRecentlyPlayedTracks(accessToken, limit);
+                RecentlyPlayedResponse response = dataCache.getRecentlyPlayedTracks(tokenManager.getAccessToken(), limit, revalidate,
+                        fresh -> {
+                            storePlays(fresh);
+                            Platform.runLater(() -> showRecentlyPlayed(fresh));
+                        });
+                storePlays(response);
+                return response;
             }
             
             @Override
             protected void succeeded() {
-                RecentlyPlayedResponse response = getValue();
-                ObservableList<PlayHistoryItem> items = FXCollections.observableArrayList(response.getItems());
-                recentlyPlayedTable.setItems(items);
+                showRecentlyPlayed(getValue());
+                loadEvent.complete(recentlyPlayedTable.getItems().size(), true);
             }
             
             @Override
             protected void failed() {
+                loadEvent.complete(0, false);
                 logger.error("Failed to load recently played tracks", getException());
+                if (showStoredPlays()) {
+                    return;
+                }
                 Platform.runLater(() -> {
                     recentlyPlayedTable.setPlaceholder(new Label("Error loading data: " + getException().getMessage()));
                 });
             }
         };
         
-        new Thread(task).start();
+        loadExecutor.execute(task);
     }
     
     @FXML
     private void loadTopArtists() {
-        if (accessToken == null) return;
+        loadTopArtists(true);
+    }
+    
+    private void loadTopArtists(boolean revalidate) {
+        if (tokenManager == null) return;
         
+        UiLoadEvent loadEvent = UiLoadEvent.start("topArtists", revalidate);
         Task<SpotifyDataService.TopItemsResponse<Artist>> task = new Task<SpotifyDataService.TopItemsResponse<Artist>>() {
             @Override
             protected SpotifyDataService.TopItemsResponse<Artist> call() throws Exception {
@@ -344,18 +402,19 @@ public class SpotifyConnectorController implements Initializable {
                 Integer limit = artistLimitCombo.getValue();
                 if (timeRange == null) timeRange = "medium_term";
                 if (limit == null) limit = 20;
-                return dataService.getTopArtists(accessToken, timeRange, limit);
+                return dataCache.getTopArtists(tokenManager.getAccessToken(), timeRange, limit, revalidate,
+                        fresh -> Platform.runLater(() -> showTopArtists(fresh)));
             }
             
             @Override
             protected void succeeded() {
-                SpotifyDataService.TopItemsResponse<Artist> response = getValue();
-                ObservableList<Artist> items = FXCollections.observableArrayList(response.getItems());
-                topArtistsTable.setItems(items);
+                showTopArtists(getValue());
+                loadEvent.complete(topArtistsTable.getItems().size(), true);
             }
             
             @Override
             protected void failed() {
+                loadEvent.complete(0, false);
                 logger.error("Failed to load top artists", getException());
                 Platform.runLater(() -> {
                     topArtistsTable.setPlaceholder(new Label("Error loading data: " + getException().getMessage()));
@@ -363,13 +422,18 @@ public class SpotifyConnectorController implements Initializable {
             }
         };
         
-        new Thread(task).start();
+        loadExecutor.execute(task);
     }
     
     @FXML
     private void loadTopTracks() {
-        if (accessToken == null) return;
+        loadTopTracks(true);
+    }
+    
+    private void loadTopTracks(boolean revalidate) {
+        if (tokenManager == null) return;
         
+        UiLoadEvent loadEvent = UiLoadEvent.start("topTracks", revalidate);
         Task<SpotifyDataService.TopItemsResponse<Track>> task = new Task<SpotifyDataService.TopItemsResponse<Track>>() {
             @Override
             protected SpotifyDataService.TopItemsResponse<Track> call() throws Exception {
@@ -378,18 +442,19 @@ public class SpotifyConnectorController implements Initializable {
                 Integer limit = trackLimitCombo.getValue();
                 if (timeRange == null) timeRange = "medium_term";
                 if (limit == null) limit = 20;
-                return dataService.getTopTracks(accessToken, timeRange, limit);
+                return dataCache.getTopTracks(tokenManager.getAccessToken(), timeRange, limit, revalidate,
+                        fresh -> Platform.runLater(() -> showTopTracks(fresh)));
             }
             
             @Override
             protected void succeeded() {
-                SpotifyDataService.TopItemsResponse<Track> response = getValue();
-                ObservableList<Track> items = FXCollections.observableArrayList(response.getItems());
-                topTracksTable.setItems(items);
+                showTopTracks(getValue());
+                loadEvent.complete(topTracksTable.getItems().size(), true);
             }
             
             @Override
             protected void failed() {
+                loadEvent.complete(0, false);
                 logger.error("Failed to load top tracks", getException());
                 Platform.runLater(() -> {
                     topTracksTable.setPlaceholder(new Label("Error loading data: " + getException().getMessage()));
@@ -397,33 +462,198 @@ public class SpotifyConnectorController implements Initializable {
             }
         };
         
-        new Thread(task).start();
+        loadExecutor.execute(task);
     }
     
     @FXML
     private void loadUserProfile() {
-        if (accessToken == null) return;
+        loadUserProfile(true);
+    }
+    
+    private void loadUserProfile(boolean revalidate) {
+        if (tokenManager == null) return;
         
+        UiLoadEvent loadEvent = UiLoadEvent.start("userProfile", revalidate);
         Task<UserProfile> task = new Task<UserProfile>() {
             @Override
             protected UserProfile call() throws Exception {
                 updateMessage("Loading user profile...");
-                return dataService.getUserProfile(accessToken);
+                return dataCache.getUserProfile(tokenManager.getAccessToken(), revalidate, fresh -> {
+                    currentUser = fresh;
+                    updateProfileUI();
+                });
             }
             
             @Override
             protected void succeeded() {
                 currentUser = getValue();
                 updateProfileUI();
+                loadEvent.complete(1, true);
             }
             
             @Override
             protected void failed() {
+                loadEvent.complete(0, false);
                 logger.error("Failed to load user profile", getException());
             }
         };
         
-        new Thread(task).start();
+        loadExecutor.execute(task);
+    }
+    
+    /**
+     * Open the local play history shared with the sync daemon, or run without one if it is unavailable
+     */
+    private static PlayHistoryStore openHistoryStore() {
+        try {
+            SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(RecentlyPlayedSync.defaultStateDirectory().resolve("plays"));
+            store.startCompaction();
+            return store;
+        } catch (IOException e) {
+            logger.warn("Play history will not be saved: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Keep fetched plays in the local history so they survive a restart; called off the FX thread
+     */
+    private void storePlays(RecentlyPlayedResponse response) {
+        if (historyStore == null || response == null || response.getItems() == null) {
+            return;
+        }
+        try {
+            String userId = dataCache.getUserProfile(tokenManager.getAccessToken(), false, null).getId();
+            int added = historyStore.append(userId, response.getItems());
+            logger.debug("Stored {} new plays for {}", added, userId);
+        } catch (IOException e) {
+            logger.warn("Could not store play history: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Show the most recent stored plays when the API is unreachable, returning false if there are none
+     */
+    private boolean showStoredPlays() {
+        if (historyStore == null || currentUser == null) {
+            return false;
+        }
+        Integer limit = recentLimitCombo.getValue();
+        try {
+            List<PlayHistoryItem> stored = historyStore.getRecent(currentUser.getId(), limit != null ? limit : 20);
+            if (stored.isEmpty()) {
+                return false;
+            }
+            recentlyPlayedTable.setItems(FXCollections.observableArrayList(stored));
+            recentlyPlayedTable.setPlaceholder(new Label("Showing saved history"));
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not read stored play history: {}", e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Context menu listing every stored play of the row's track, artists or album, or null
+     * when there is no indexed history to ask
+     */
+    private ContextMenu drillDownMenu(PlayHistoryItem item) {
+        if (item == null || item.getTrack() == null || !(historyStore instanceof SegmentedPlayHistoryStore)) {
+            return null;
+        }
+        Track track = item.getTrack();
+        ContextMenu menu = new ContextMenu();
+        if (track.getId() != null) {
+            menu.getItems().add(drillDownItem("All plays of \"" + track.getName() + "\"", EntityKind.TRACK, track.getId(), track.getName()));
+        }
+        if (track.getArtists() != null) {
+            for (Artist artist : track.getArtists()) {
+                if (artist.getId() != null) {
+                    menu.getItems().add(drillDownItem("All plays of " + artist.getName(), EntityKind.ARTIST, artist.getId(), artist.getName()));
+                }
+            }
+        }
+        if (track.getAlbum() != null && track.getAlbum().getId() != null) {
+            Album album = track.getAlbum();
+            menu.getItems().add(drillDownItem("All plays from " + album.getName(), EntityKind.ALBUM, album.getId(), album.getName()));
+        }
+        return menu.getItems().isEmpty() ? null : menu;
+    }
+    
+    private MenuItem drillDownItem(String text, EntityKind kind, String id, String name) {
+        MenuItem menuItem = new MenuItem(text);
+        menuItem.setOnAction(e -> showEntityPlays(kind, id, name));
+        return menuItem;
+    }
+    
+    /**
+     * Show the stored plays of one track, artist or album in the recently played table,
+     * answered from the play history's secondary indexes
+     */
+    private void showEntityPlays(EntityKind kind, String id, String name) {
+        if (currentUser == null) return;
+        
+        SegmentedPlayHistoryStore store = (SegmentedPlayHistoryStore) historyStore;
+        String userId = currentUser.getId();
+        UiLoadEvent loadEvent = UiLoadEvent.start("entityPlays", false);
+        Task<List<PlayHistoryItem>> task = new Task<List<PlayHistoryItem>>() {
+            private long[] playTimes;
+            
+            @Override
+            protected List<PlayHistoryItem> call() throws Exception {
+                playTimes = store.getPlayTimes(userId, kind, id);
+                return store.getPlays(userId, kind, id, ENTITY_PLAYS_LIMIT);
+            }
+            
+            @Override
+            protected void succeeded() {
+                List<PlayHistoryItem> plays = getValue();
+                recentlyPlayedTable.setItems(FXCollections.observableArrayList(plays));
+                recentlyPlayedTable.setPlaceholder(new Label("No saved plays of " + name));
+                loadEvent.complete(plays.size(), true);
+                
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Play History");
+                alert.setHeaderText(name);
+                if (playTimes.length == 0) {
+                    alert.setContentText("No saved plays.");
+                } else {
+                    alert.setContentText("Played " + playTimes.length + " times\n" +
+                                       "First played: " + formatPlayTime(playTimes[0]) + "\n" +
+                                       "Last played: " + formatPlayTime(playTimes[playTimes.length - 1]) +
+                                       (playTimes.length > plays.size() ? "\n\nShowing the latest " + plays.size() + "." : ""));
+                }
+                alert.show();
+            }
+            
+            @Override
+            protected void failed() {
+                loadEvent.complete(0, false);
+                logger.error("Failed to read stored plays of {}", name, getException());
+            }
+        };
+        
+        loadExecutor.execute(task);
+    }
+    
+    private static String formatPlayTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+    }
+    
+    private void showRecentlyPlayed(RecentlyPlayedResponse response) {
+        ObservableList<PlayHistoryItem> items = FXCollections.observableArrayList(response.getItems());
+        recentlyPlayedTable.setItems(items);
+    }
+    
+    private void showTopArtists(SpotifyDataService.TopItemsResponse<Artist> response) {
+        ObservableList<Artist> items = FXCollections.observableArrayList(response.getItems());
+        topArtistsTable.setItems(items);
+    }
+    
+    private void showTopTracks(SpotifyDataService.TopItemsResponse<Track> response) {
+        ObservableList<Track> items = FXCollections.observableArrayList(response.getItems());
+        topTracksTable.setItems(items);
     }
     
     private void updateProfileUI() {
@@ -475,11 +705,67 @@ public class SpotifyConnectorController implements Initializable {
         }
     }
     
+    /**
+     * Start a flight recording of this session, or stop the running one and show where it was written
+     */
+    @FXML
+    private void toggleFlightRecording() {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Flight Recording");
+        try {
+            Path written = FlightRecording.stopActive();
+            if (written != null) {
+                alert.setHeaderText("Flight recording saved");
+                alert.setContentText(written.toAbsolutePath().toString());
+            } else {
+                String name = "spotify-connector-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr";
+                Path destination = RecentlyPlayedSync.defaultStateDirectory().resolve("recordings").resolve(name);
+                FlightRecording.start(destination);
+                alert.setHeaderText("Flight recording started");
+                alert.setContentText("Recording to " + destination.toAbsolutePath() + "\nChoose Stop Flight Recording to save it.");
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Flight recording failed", e);
+            alert.setAlertType(Alert.AlertType.ERROR);
+            alert.setHeaderText("Flight recording failed");
+            alert.setContentText(e.getMessage());
+        }
+        updateFlightRecordingMenu();
+        alert.showAndWait();
+    }
+    
+    private void updateFlightRecordingMenu() {
+        if (flightRecordingMenuItem != null) {
+            flightRecordingMenuItem.setText(FlightRecording.getActive() != null ? "Stop Flight Recording" : "Start Flight Recording");
+            flightRecordingMenuItem.setDisable(!FlightRecording.isAvailable());
+        }
+    }
+    
+    /**
+     * Small daemon pool that runs every data load, instead of a new thread per load
+     */
+    private static ExecutorService newLoadExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(LOAD_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "spotify-ui-load-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
     @FXML
     private void handleExit() {
         if (callbackServer != null) {
             callbackServer.stop();
         }
+        loadExecutor.shutdown();
+        if (historyStore instanceof SegmentedPlayHistoryStore) {
+            try {
+                ((SegmentedPlayHistoryStore) historyStore).close();
+            } catch (IOException e) {
+                logger.warn("Could not close play history: {}", e.getMessage());
+            }
+        }
         Platform.exit();
     }
     
@@ -0,0 +1,40 @@
+package com.spotifyconnector.logging;
+
+import java.util.regex.Pattern;
+
+/**
+ * Masks credentials in text that is about to be logged: token and secret fields in JSON,
+ * the same names as form or query parameters, and Bearer/Basic authorization values.
+ */
+public final class LogRedactor {
+    private static final String MASK = "***";
+    
+    private static final String SECRET_NAMES = "access_token|refresh_token|id_token|client_secret|code";
+    
+    private static final Pattern JSON_FIELD = Pattern.compile("(\"(?:" + SECRET_NAMES + ")\"\\s*:\\s*\")[^\"]*(\")");
+    private static final Pattern PARAMETER = Pattern.compile("((?:^|[?&\\s])(?:" + SECRET_NAMES + ")=)[^&\\s\"]+");
+    private static final Pattern AUTHORIZATION = Pattern.compile("((?:Bearer|Basic)\\s+)[A-Za-z0-9._~+/=-]+");
+    
+    private LogRedactor() {
+    }
+    
+    /**
+     * Return the text with every credential replaced by {@code ***}
+     */
+    public static String redact(String text) {
+        if (text == null || !mayContainSecret(text)) {
+            return text;
+        }
+        String redacted = JSON_FIELD.matcher(text).replaceAll("$1" + MASK + "$2");
+        redacted = PARAMETER.matcher(redacted).replaceAll("$1" + MASK);
+        return AUTHORIZATION.matcher(redacted).replaceAll("$1" + MASK);
+    }
+    
+    /**
+     * Cheap pre-check so ordinary messages skip the regular expressions
+     */
+    private static boolean mayContainSecret(String text) {
+        return text.contains("token") || text.contains("secret") || text.contains("code")
+                || text.contains("Bearer") || text.contains("Basic");
+    }
+}
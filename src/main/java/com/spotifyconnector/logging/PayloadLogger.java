@@ -0,0 +1,71 @@
+package com.spotifyconnector.logging;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs API response bodies for debugging without putting them on the request hot path.
+ *
+ * Payloads go to the {@code com.spotifyconnector.payloads} logger at DEBUG, only when
+ * {@code spotify.log.payloads} is set, and only for one in {@code spotify.log.payloadSampleEvery}
+ * responses. At most {@code spotify.log.payloadMaxBytes} are peeked from a body, credentials are
+ * redacted, and nothing is read or formatted for responses that are not sampled.
+ */
+public class PayloadLogger {
+    private static final Logger logger = LoggerFactory.getLogger("com.spotifyconnector.payloads");
+    
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long sampleEvery;
+    private final AtomicLong seen = new AtomicLong();
+    
+    public PayloadLogger(SpotifyConfig config) {
+        this.enabled = config.getBooleanProperty("spotify.log.payloads", false);
+        this.maxBytes = Math.max(1, config.getLongProperty("spotify.log.payloadMaxBytes", 4096));
+        this.sampleEvery = Math.max(1, config.getLongProperty("spotify.log.payloadSampleEvery", 10));
+    }
+    
+    /**
+     * Whether the next payload should be logged; counts towards the sample either way
+     */
+    public boolean shouldLog() {
+        return enabled && logger.isDebugEnabled() && seen.getAndIncrement() % sampleEvery == 0;
+    }
+    
+    /**
+     * Log a capped prefix of the response body without consuming it
+     */
+    public void log(String url, Response response) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return;
+        }
+        ResponseBody peeked = response.peekBody(maxBytes);
+        boolean truncated = peeked.contentLength() == maxBytes && body.contentLength() != maxBytes;
+        write(url, peeked.string(), truncated);
+    }
+    
+    /**
+     * Log a capped prefix of a body that has already been read
+     */
+    public void log(String url, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        boolean truncated = bytes.length > maxBytes;
+        write(url, truncated ? new String(bytes, 0, (int) maxBytes, StandardCharsets.UTF_8) : body, truncated);
+    }
+    
+    private void write(String url, String payload, boolean truncated) {
+        if (truncated) {
+            logger.debug("Response for {} (first {} bytes): {}...", url, maxBytes, LogRedactor.redact(payload));
+        } else {
+            logger.debug("Response for {}: {}", url, LogRedactor.redact(payload));
+        }
+    }
+}
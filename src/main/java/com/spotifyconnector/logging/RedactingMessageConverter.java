@@ -0,0 +1,16 @@
+package com.spotifyconnector.logging;
+
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Logback {@code %redactedMsg} conversion word: the formatted message with credentials masked.
+ * It runs in the appender, i.e. on the async logging thread rather than the caller's.
+ */
+public class RedactingMessageConverter extends MessageConverter {
+    
+    @Override
+    public String convert(ILoggingEvent event) {
+        return LogRedactor.redact(super.convert(event));
+    }
+}
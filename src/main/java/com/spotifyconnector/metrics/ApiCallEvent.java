@@ -0,0 +1,45 @@
+package com.spotifyconnector.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning one Spotify API call, from scheduling until the body has
+ * been read. Begin it before the request is scheduled and complete it exactly once.
+ */
+@Name("com.spotifyconnector.ApiCall")
+@Label("Spotify API Call")
+@Category({"Spotify Connector", "HTTP"})
+@Description("A Spotify API call including rate limiting, retries and reading the response body")
+@StackTrace(false)
+public class ApiCallEvent extends jdk.jfr.Event {
+    @Label("Endpoint")
+    @Description("URL template with Spotify ids replaced by {id}")
+    private String endpoint;
+    
+    @Label("Method")
+    private String method;
+    
+    @Label("Status")
+    @Description("HTTP status code, or 0 when no response was received")
+    private int status;
+    
+    @Label("Bytes Received")
+    @DataAmount
+    private long bytes;
+    
+    public void complete(String endpoint, String method, int status, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.status = status;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.spotifyconnector.metrics;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics for every Spotify API call.
+ *
+ * Per endpoint (see {@code RequestScheduler.endpointKey}) it keeps a latency histogram for
+ * each status code, measured from sending the request until the response headers arrive,
+ * and a separate histogram for reading and deserializing the body, together with the bytes
+ * received and counters for retries, hedged copies, fast-failed calls and cache hits.
+ * Failed calls without a response are recorded under status 0.
+ *
+ * Metrics are exposed over JMX (unless {@code spotify.metrics.jmx=false}) and as plain text
+ * by {@link MetricsServer}.
+ */
+public class ApiMetrics implements ApiMetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(ApiMetrics.class);
+    
+    private static final String OBJECT_NAME = "com.spotifyconnector:type=ApiMetrics";
+    
+    /**
+     * Ways a call can be answered without reading a new body from the network
+     */
+    public enum CacheHit {
+        /** A 304 let a previously parsed response be reused */
+        NOT_MODIFIED,
+        /** The call joined an identical request already in flight */
+        COALESCED,
+        /** The response cache answered without any request; keyed by the cache's name, e.g. {@code profile} */
+        RESPONSE_CACHE
+    }
+    
+    private static ApiMetrics instance;
+    
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    
+    ApiMetrics() {
+    }
+    
+    public static synchronized ApiMetrics getInstance() {
+        if (instance == null) {
+            instance = new ApiMetrics();
+            if (SpotifyConfig.getInstance().getBooleanProperty("spotify.metrics.jmx", true)) {
+                instance.registerMBean();
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Record one HTTP exchange; status 0 means no response was received
+     */
+    public void recordCall(String endpoint, int status, long networkNanos) {
+        endpoint(endpoint).latency(status).recordNanos(networkNanos);
+    }
+    
+    /**
+     * Record reading and deserializing a response body
+     */
+    public void recordBody(String endpoint, long parseNanos, long bytes) {
+        Endpoint metrics = endpoint(endpoint);
+        metrics.parse.recordNanos(parseNanos);
+        metrics.bytes.add(bytes);
+    }
+    
+    public void recordRetry(String endpoint) {
+        endpoint(endpoint).retries.increment();
+    }
+    
+    public void recordHedge(String endpoint) {
+        endpoint(endpoint).hedges.increment();
+    }
+    
+    /**
+     * Record a call refused without being sent, e.g. by an open circuit or a full queue
+     */
+    public void recordRejected(String endpoint) {
+        endpoint(endpoint).rejected.increment();
+    }
+    
+    public void recordCacheHit(String endpoint, CacheHit kind) {
+        endpoint(endpoint).cacheHits[kind.ordinal()].increment();
+    }
+    
+    @Override
+    public List<LatencyStats> getLatencies() {
+        List<LatencyStats> stats = new ArrayList<>();
+        for (Map.Entry<String, Endpoint> entry : sorted().entrySet()) {
+            for (Map.Entry<Integer, LatencyHistogram> status : new TreeMap<>(entry.getValue().latencies).entrySet()) {
+                stats.add(new LatencyStats(entry.getKey(), status.getKey(), status.getValue()));
+            }
+        }
+        return stats;
+    }
+    
+    @Override
+    public List<EndpointStats> getEndpoints() {
+        List<EndpointStats> stats = new ArrayList<>();
+        for (Map.Entry<String, Endpoint> entry : sorted().entrySet()) {
+            stats.add(new EndpointStats(entry.getKey(), entry.getValue()));
+        }
+        return stats;
+    }
+    
+    @Override
+    public long getTotalCalls() {
+        long total = 0;
+        for (Endpoint metrics : endpoints.values()) {
+            for (LatencyHistogram histogram : metrics.latencies.values()) {
+                total += histogram.getCount();
+            }
+        }
+        return total;
+    }
+    
+    @Override
+    public long getTotalRetries() {
+        long total = 0;
+        for (Endpoint metrics : endpoints.values()) {
+            total += metrics.retries.sum();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getTotalCacheHits() {
+        long total = 0;
+        for (Endpoint metrics : endpoints.values()) {
+            for (LongAdder hits : metrics.cacheHits) {
+                total += hits.sum();
+            }
+        }
+        return total;
+    }
+    
+    @Override
+    public long getTotalBytesReceived() {
+        long total = 0;
+        for (Endpoint metrics : endpoints.values()) {
+            total += metrics.bytes.sum();
+        }
+        return total;
+    }
+    
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-48s %6s %8s %9s %9s %9s %9s %9s%n",
+                "# latency (ms)", "status", "count", "mean", "p50", "p90", "p99", "max"));
+        for (LatencyStats stats : getLatencies()) {
+            report.append(String.format("%-48s %6d %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    stats.getEndpoint(), stats.getStatus(), stats.getCount(), stats.getMeanMillis(),
+                    stats.getP50Millis(), stats.getP90Millis(), stats.getP99Millis(), stats.getMaxMillis()));
+        }
+        report.append(System.lineSeparator());
+        report.append(String.format("%-48s %8s %9s %9s %12s %7s %6s %8s %8s %8s %8s%n",
+                "# endpoint", "bodies", "parse p50", "parse p99", "bytes", "retries", "hedges",
+                "rejected", "not-mod", "joined", "cached"));
+        for (EndpointStats stats : getEndpoints()) {
+            report.append(String.format("%-48s %8d %9.1f %9.1f %12d %7d %6d %8d %8d %8d %8d%n",
+                    stats.getEndpoint(), stats.getBodies(), stats.getParseP50Millis(), stats.getParseP99Millis(),
+                    stats.getBytesReceived(), stats.getRetries(), stats.getHedges(), stats.getRejected(),
+                    stats.getNotModified(), stats.getCoalesced(), stats.getResponseCacheHits()));
+        }
+        return report.toString();
+    }
+    
+    @Override
+    public void reset() {
+        endpoints.clear();
+    }
+    
+    private Endpoint endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, key -> new Endpoint());
+    }
+    
+    private Map<String, Endpoint> sorted() {
+        return new TreeMap<>(endpoints);
+    }
+    
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("Could not register API metrics with JMX: {}", e.getMessage());
+        }
+    }
+    
+    private static class Endpoint {
+        private final ConcurrentHashMap<Integer, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+        private final LatencyHistogram parse = new LatencyHistogram();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder hedges = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder[] cacheHits = new LongAdder[CacheHit.values().length];
+        
+        Endpoint() {
+            for (int i = 0; i < cacheHits.length; i++) {
+                cacheHits[i] = new LongAdder();
+            }
+        }
+        
+        LatencyHistogram latency(int status) {
+            return latencies.computeIfAbsent(status, key -> new LatencyHistogram());
+        }
+    }
+    
+    /**
+     * Network latency of one endpoint and status code
+     */
+    public static class LatencyStats {
+        private final String endpoint;
+        private final int status;
+        private final long count;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+        
+        LatencyStats(String endpoint, int status, LatencyHistogram histogram) {
+            this.endpoint = endpoint;
+            this.status = status;
+            this.count = histogram.getCount();
+            this.meanMillis = histogram.getMeanMillis();
+            this.p50Millis = histogram.percentileMillis(50);
+            this.p90Millis = histogram.percentileMillis(90);
+            this.p99Millis = histogram.percentileMillis(99);
+            this.maxMillis = histogram.getMaxMillis();
+        }
+        
+        public String getEndpoint() { return endpoint; }
+        public int getStatus() { return status; }
+        public long getCount() { return count; }
+        public double getMeanMillis() { return meanMillis; }
+        public double getP50Millis() { return p50Millis; }
+        public double getP90Millis() { return p90Millis; }
+        public double getP99Millis() { return p99Millis; }
+        public double getMaxMillis() { return maxMillis; }
+    }
+    
+    /**
+     * Body, retry and cache counters of one endpoint
+     */
+    public static class EndpointStats {
+        private final String endpoint;
+        private final long bodies;
+        private final double parseP50Millis;
+        private final double parseP99Millis;
+        private final long bytesReceived;
+        private final long retries;
+        private final long hedges;
+        private final long rejected;
+        private final long notModified;
+        private final long coalesced;
+        private final long responseCacheHits;
+        
+        EndpointStats(String endpoint, Endpoint metrics) {
+            this.endpoint = endpoint;
+            this.bodies = metrics.parse.getCount();
+            this.parseP50Millis = metrics.parse.percentileMillis(50);
+            this.parseP99Millis = metrics.parse.percentileMillis(99);
+            this.bytesReceived = metrics.bytes.sum();
+            this.retries = metrics.retries.sum();
+            this.hedges = metrics.hedges.sum();
+            this.rejected = metrics.rejected.sum();
+            this.notModified = metrics.cacheHits[CacheHit.NOT_MODIFIED.ordinal()].sum();
+            this.coalesced = metrics.cacheHits[CacheHit.COALESCED.ordinal()].sum();
+            this.responseCacheHits = metrics.cacheHits[CacheHit.RESPONSE_CACHE.ordinal()].sum();
+        }
+        
+        public String getEndpoint() { return endpoint; }
+        public long getBodies() { return bodies; }
+        public double getParseP50Millis() { return parseP50Millis; }
+        public double getParseP99Millis() { return parseP99Millis; }
+        public long getBytesReceived() { return bytesReceived; }
+        public long getRetries() { return retries; }
+        public long getHedges() { return hedges; }
+        public long getRejected() { return rejected; }
+        public long getNotModified() { return notModified; }
+        public long getCoalesced() { return coalesced; }
+        public long getResponseCacheHits() { return responseCacheHits; }
+    }
+    
+    /**
+     * Input stream that counts the bytes read through it
+     */
+    public static class CountingInputStream extends FilterInputStream {
+        private long bytes;
+        
+        public CountingInputStream(InputStream input) {
+            super(input);
+        }
+        
+        public long getBytes() {
+            return bytes;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                bytes++;
+            }
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.spotifyconnector.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of the API call metrics, registered as {@code com.spotifyconnector:type=ApiMetrics}
+ */
+public interface ApiMetricsMXBean {
+    
+    /**
+     * Network latency per endpoint and status code
+     */
+    List<ApiMetrics.LatencyStats> getLatencies();
+    
+    /**
+     * Body, retry and cache counters per endpoint
+     */
+    List<ApiMetrics.EndpointStats> getEndpoints();
+    
+    long getTotalCalls();
+    
+    long getTotalRetries();
+    
+    long getTotalCacheHits();
+    
+    long getTotalBytesReceived();
+    
+    /**
+     * The same plain-text report served by the metrics endpoint
+     */
+    String getReport();
+    
+    void reset();
+}
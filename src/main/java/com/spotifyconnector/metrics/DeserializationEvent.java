@@ -0,0 +1,48 @@
+package com.spotifyconnector.metrics;
+
+import com.fasterxml.jackson.databind.JavaType;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for deserializing one response body with Jackson
+ */
+@Name("com.spotifyconnector.Deserialization")
+@Label("JSON Deserialization")
+@Category({"Spotify Connector", "JSON"})
+@StackTrace(false)
+public class DeserializationEvent extends jdk.jfr.Event {
+    @Label("Model Type")
+    private String modelType;
+    
+    @Label("Bytes Parsed")
+    @DataAmount
+    private long bytes;
+    
+    @Label("Succeeded")
+    private boolean succeeded;
+    
+    public void complete(JavaType type, long bytes, boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            complete(type.toCanonical(), bytes, succeeded);
+        }
+    }
+    
+    public void complete(Class<?> type, long bytes, boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            complete(type.getName(), bytes, succeeded);
+        }
+    }
+    
+    private void complete(String modelType, long bytes, boolean succeeded) {
+        this.modelType = modelType;
+        this.bytes = bytes;
+        this.succeeded = succeeded;
+        commit();
+    }
+}
@@ -0,0 +1,93 @@
+package com.spotifyconnector.metrics;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * A Java Flight Recorder session written to a file, so an incident can be profiled without
+ * attaching an external profiler. At most one session is active per process.
+ *
+ * The session uses the JDK's {@code profile} settings plus the connector's own events
+ * ({@link ApiCallEvent}, {@link DeserializationEvent}, {@link UiLoadEvent}).
+ */
+public class FlightRecording {
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecording.class);
+    
+    private static FlightRecording active;
+    
+    private final Recording recording;
+    private final Path destination;
+    
+    private FlightRecording(Recording recording, Path destination) {
+        this.recording = recording;
+        this.destination = destination;
+    }
+    
+    public static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+    
+    /**
+     * Start recording to the given file; fails if a session is already active
+     */
+    public static synchronized FlightRecording start(Path destination) throws IOException {
+        if (active != null) {
+            throw new IllegalStateException("A flight recording is already running: " + active.destination);
+        }
+        if (!isAvailable()) {
+            throw new IOException("Java Flight Recorder is not available in this JVM");
+        }
+        Configuration settings;
+        try {
+            settings = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("Unreadable JFR settings: " + e.getMessage(), e);
+        }
+        Path parent = destination.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Recording recording = new Recording(settings);
+        recording.setName("spotify-connector");
+        recording.enable(ApiCallEvent.class);
+        recording.enable(DeserializationEvent.class);
+        recording.enable(UiLoadEvent.class);
+        recording.setToDisk(true);
+        recording.setDestination(destination);
+        recording.start();
+        active = new FlightRecording(recording, destination);
+        logger.info("Flight recording started, writing to {}", destination);
+        return active;
+    }
+    
+    public static synchronized FlightRecording getActive() {
+        return active;
+    }
+    
+    /**
+     * Stop the active session and write its file, returning the file or null if none was running
+     */
+    public static synchronized Path stopActive() {
+        if (active == null) {
+            return null;
+        }
+        FlightRecording stopped = active;
+        active = null;
+        stopped.recording.stop();
+        stopped.recording.close();
+        logger.info("Flight recording written to {}", stopped.destination);
+        return stopped.destination;
+    }
+    
+    public Path getDestination() {
+        return destination;
+    }
+}
@@ -0,0 +1,89 @@
+package com.spotifyconnector.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values are recorded in microseconds. Each power of two is split into 16 linear
+ * sub-buckets, so any percentile is reported within about 6% of the true value while the
+ * whole range from 1 us to several days fits in a few hundred counters.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_MICROS = (1L << 40) - 1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_MICROS) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+    
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n > 0 ? sumMicros.sum() / 1000.0 / n : 0;
+    }
+    
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+    
+    /**
+     * Get the given percentile (0-100) in milliseconds, or 0 when nothing was recorded
+     */
+    public double percentileMillis(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+    
+    /**
+     * Bucket of a value: values below 16 map to themselves, larger ones keep their
+     * leading five significant bits
+     */
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,82 @@
+package com.spotifyconnector.metrics;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the {@link ApiMetrics} report as plain text on {@code http://127.0.0.1:<port>/metrics}.
+ * Bound to the loopback interface only; it is meant for local inspection, not remote scraping.
+ */
+public class MetricsServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+    
+    private final HttpServer server;
+    
+    public MetricsServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+    }
+    
+    /**
+     * Port configured by {@code spotify.metrics.port}; negative (the default) disables the endpoint
+     */
+    public static int configuredPort() {
+        return SpotifyConfig.getInstance().getIntProperty("spotify.metrics.port", -1);
+    }
+    
+    /**
+     * Start a server on the given port, or return null when the port is negative or cannot be bound
+     */
+    public static MetricsServer startIfEnabled(int port) {
+        if (port < 0) {
+            return null;
+        }
+        try {
+            MetricsServer metricsServer = new MetricsServer(port);
+            metricsServer.start();
+            return metricsServer;
+        } catch (IOException e) {
+            logger.warn("Could not start metrics endpoint on port {}: {}", port, e.getMessage());
+            return null;
+        }
+    }
+    
+    public void start() {
+        server.start();
+        logger.info("Metrics available at http://127.0.0.1:{}/metrics", getPort());
+    }
+    
+    public void stop() {
+        server.stop(0);
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = ApiMetrics.getInstance().getReport().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
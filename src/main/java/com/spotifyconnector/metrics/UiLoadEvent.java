@@ -0,0 +1,50 @@
+package com.spotifyconnector.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning one GUI load, from starting the task until its table is populated
+ */
+@Name("com.spotifyconnector.UiLoad")
+@Label("UI Load")
+@Category({"Spotify Connector", "UI"})
+@StackTrace(false)
+public class UiLoadEvent extends jdk.jfr.Event {
+    @Label("View")
+    private String view;
+    
+    @Label("Rows")
+    private int rows;
+    
+    @Label("Revalidate")
+    private boolean revalidate;
+    
+    @Label("Succeeded")
+    private boolean succeeded;
+    
+    private UiLoadEvent(String view, boolean revalidate) {
+        this.view = view;
+        this.revalidate = revalidate;
+    }
+    
+    /**
+     * Create the event and start timing it
+     */
+    public static UiLoadEvent start(String view, boolean revalidate) {
+        UiLoadEvent event = new UiLoadEvent(view, revalidate);
+        event.begin();
+        return event;
+    }
+    
+    public void complete(int rows, boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.rows = rows;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.spotifyconnector.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
 /**
  * Represents a single item in the recently played tracks history
  */
@@ -51,6 +55,29 @@ public class PlayHistoryItem {
         this.context = context;
     }
     
+    /**
+     * Get the play timestamp as epoch milliseconds, or 0 if it is missing or malformed
+     */
+    @JsonIgnore
+    public long getPlayedAtMillis() {
+        if (playedAt == null) {
+            return 0;
+        }
+        try {
+            return Instant.parse(playedAt).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Get the id of the played track, or null if the track is missing
+     */
+    @JsonIgnore
+    public String getTrackId() {
+        return track != null ? track.getId() : null;
+    }
+    
     @Override
     public String toString() {
         return String.format("PlayHistoryItem{track=%s, playedAt='%s'}", track, playedAt);
@@ -0,0 +1,111 @@
+package com.spotifyconnector.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Represents the tokens returned by the Spotify token endpoint, with the absolute
+ * time at which the access token expires
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TokenSet {
+    @JsonProperty("access_token")
+    private String accessToken;
+    
+    @JsonProperty("token_type")
+    private String tokenType;
+    
+    @JsonProperty("expires_in")
+    private int expiresIn;
+    
+    @JsonProperty("refresh_token")
+    private String refreshToken;
+    
+    @JsonProperty("scope")
+    private String scope;
+    
+    @JsonProperty("expires_at")
+    private long expiresAtMillis;
+    
+    // Constructors
+    public TokenSet() {}
+    
+    public TokenSet(String accessToken, String tokenType, int expiresIn, String refreshToken,
+                    String scope, long expiresAtMillis) {
+        this.accessToken = accessToken;
+        this.tokenType = tokenType;
+        this.expiresIn = expiresIn;
+        this.refreshToken = refreshToken;
+        this.scope = scope;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+    
+    /**
+     * Token set holding only a refresh token, e.g. one loaded from storage
+     */
+    public static TokenSet fromRefreshToken(String refreshToken) {
+        return new TokenSet(null, "Bearer", 0, refreshToken, null, 0);
+    }
+    
+    // Getters and Setters
+    public String getAccessToken() {
+        return accessToken;
+    }
+    
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+    }
+    
+    public String getTokenType() {
+        return tokenType;
+    }
+    
+    public void setTokenType(String tokenType) {
+        this.tokenType = tokenType;
+    }
+    
+    public int getExpiresIn() {
+        return expiresIn;
+    }
+    
+    public void setExpiresIn(int expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+    
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+    
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+    }
+    
+    public String getScope() {
+        return scope;
+    }
+    
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+    
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+    
+    public void setExpiresAtMillis(long expiresAtMillis) {
+        this.expiresAtMillis = expiresAtMillis;
+    }
+    
+    /**
+     * Whether the access token is missing or expires within the given margin
+     */
+    public boolean isExpired(long marginMillis) {
+        return accessToken == null || System.currentTimeMillis() + marginMillis >= expiresAtMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("TokenSet{type='%s', expiresAt=%d, scope='%s', refreshable=%s}",
+                tokenType, expiresAtMillis, scope, refreshToken != null);
+    }
+}
@@ -0,0 +1,79 @@
+package com.spotifyconnector.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-endpoint circuit breaker.
+ *
+ * After {@code failureThreshold} consecutive failures (network errors, timeouts or 5xx) the
+ * circuit opens and calls fail fast for {@code openMillis}. Then a single trial call is let
+ * through: success closes the circuit, failure opens it again.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openNanos;
+    
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private long trialStartedNanos;
+    
+    public CircuitBreaker(String endpoint, int failureThreshold, long openMillis) {
+        this.endpoint = endpoint;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openMillis * 1_000_000L;
+    }
+    
+    /**
+     * Whether a call may be made now; in the half-open state only one trial call is admitted
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialStartedNanos = now;
+                logger.info("Circuit for {} half-open, sending a trial call", endpoint);
+                return true;
+            default:
+                // Admit a new trial only if the previous one never reported back (e.g. it was cancelled)
+                if (now - trialStartedNanos < openNanos) {
+                    return false;
+                }
+                trialStartedNanos = now;
+                return true;
+        }
+    }
+    
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit for {} closed", endpoint);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+    
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            logger.warn("Circuit for {} opened after {} consecutive failures", endpoint, consecutiveFailures);
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,86 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Track;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of fully populated catalog entities, keyed by Spotify id.
+ *
+ * Catalog data is the same for every user, so entities fetched for one account are
+ * reused for all of them. Each entity type is bounded separately and evicted
+ * least-recently-used.
+ */
+public class EntityCache {
+    private static EntityCache instance;
+    
+    private final Map<String, Artist> artists;
+    private final Map<String, Album> albums;
+    private final Map<String, Track> tracks;
+    
+    EntityCache(int maxEntries) {
+        this.artists = lru(maxEntries);
+        this.albums = lru(maxEntries);
+        this.tracks = lru(maxEntries);
+    }
+    
+    public static synchronized EntityCache getInstance() {
+        if (instance == null) {
+            instance = new EntityCache(SpotifyConfig.getInstance().getIntProperty("spotify.entities.maxEntries", 10_000));
+        }
+        return instance;
+    }
+    
+    public synchronized Artist getArtist(String id) {
+        return artists.get(id);
+    }
+    
+    public synchronized void putArtist(Artist artist) {
+        if (artist != null && artist.getId() != null) {
+            artists.put(artist.getId(), artist);
+        }
+    }
+    
+    public synchronized Album getAlbum(String id) {
+        return albums.get(id);
+    }
+    
+    public synchronized void putAlbum(Album album) {
+        if (album != null && album.getId() != null) {
+            albums.put(album.getId(), album);
+        }
+    }
+    
+    public synchronized Track getTrack(String id) {
+        return tracks.get(id);
+    }
+    
+    public synchronized void putTrack(Track track) {
+        if (track != null && track.getId() != null) {
+            tracks.put(track.getId(), track);
+        }
+    }
+    
+    public synchronized int size() {
+        return artists.size() + albums.size() + tracks.size();
+    }
+    
+    public synchronized void clear() {
+        artists.clear();
+        albums.clear();
+        tracks.clear();
+    }
+    
+    private static <T> Map<String, T> lru(int maxEntries) {
+        return new LinkedHashMap<String, T>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
@@ -0,0 +1,337 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Image;
+import com.spotifyconnector.model.PlayHistoryItem;
+import com.spotifyconnector.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Fills in the simplified entities nested inside tracks with their full catalog data.
+ *
+ * Artists embedded in tracks and albums only carry id, name and links, and albums or tracks
+ * restored from trimmed sources may lack release dates, track counts or images. The distinct
+ * ids of a batch that still lack details are looked up in the shared {@link EntityCache}; the
+ * missing ones are fetched with the several-artists (50 ids), several-albums (20 ids) and
+ * several-tracks (50 ids) endpoints, all requests in parallel. Tracks then get the details
+ * copied in; nested albums and artists can be interned instances shared across responses, so
+ * they are swapped for full or merged copies rather than modified. Hydration is best-effort:
+ * a batch that fails is logged and its entities are left as they came.
+ */
+public class EntityHydrator {
+    private static final Logger logger = LoggerFactory.getLogger(EntityHydrator.class);
+    
+    private static final int MAX_ARTIST_IDS = 50;
+    private static final int MAX_ALBUM_IDS = 20;
+    private static final int MAX_TRACK_IDS = 50;
+    
+    /**
+     * Fetches one batch of entities by id
+     */
+    private interface BatchFetcher<T> {
+        CompletableFuture<List<T>> fetch(String accessToken, List<String> ids);
+    }
+    
+    private final SpotifyDataService dataService;
+    private final EntityCache cache;
+    
+    public EntityHydrator(SpotifyDataService dataService) {
+        this(dataService, EntityCache.getInstance());
+    }
+    
+    public EntityHydrator(SpotifyDataService dataService, EntityCache cache) {
+        this.dataService = dataService;
+        this.cache = cache;
+    }
+    
+    /**
+     * Enrich the artists of every track in a page of play history
+     */
+    public int enrichPlays(String accessToken, Collection<PlayHistoryItem> plays) throws IOException {
+        return enrichArtists(accessToken, tracksOf(plays));
+    }
+    
+    /**
+     * Hydrate the tracks, albums and artists of a page of play history
+     */
+    public int hydratePlays(String accessToken, Collection<PlayHistoryItem> plays) throws IOException {
+        return hydrate(accessToken, tracksOf(plays), true);
+    }
+    
+    /**
+     * Enrich the track and album artists of the given tracks, returning how many artists were fetched
+     */
+    public int enrichArtists(String accessToken, Collection<Track> tracks) throws IOException {
+        return hydrate(accessToken, tracks, false);
+    }
+    
+    /**
+     * Hydrate the given tracks, their albums and their artists, returning how many entities were fetched
+     */
+    public int hydrateTracks(String accessToken, Collection<Track> tracks) throws IOException {
+        return hydrate(accessToken, tracks, true);
+    }
+    
+    private int hydrate(String accessToken, Collection<Track> tracks, boolean catalog) throws IOException {
+        List<Track> nestedTracks = new ArrayList<>();
+        List<Album> nestedAlbums = new ArrayList<>();
+        List<Artist> nestedArtists = new ArrayList<>();
+        for (Track track : tracks) {
+            if (track == null) {
+                continue;
+            }
+            nestedTracks.add(track);
+            addAll(nestedArtists, track.getArtists());
+            if (track.getAlbum() != null) {
+                nestedAlbums.add(track.getAlbum());
+                addAll(nestedArtists, track.getAlbum().getArtists());
+            }
+        }
+        
+        List<CompletableFuture<Integer>> fetches = new ArrayList<>();
+        fetches.add(fetchMissing(accessToken, missing(nestedArtists, Artist::getId, EntityHydrator::needsDetails, cache::getArtist),
+                MAX_ARTIST_IDS, dataService::getArtistsAsync, Artist::getId, cache::putArtist));
+        if (catalog) {
+            fetches.add(fetchMissing(accessToken, missing(nestedAlbums, Album::getId, EntityHydrator::needsDetails, cache::getAlbum),
+                    MAX_ALBUM_IDS, dataService::getAlbumsAsync, Album::getId, cache::putAlbum));
+            fetches.add(fetchMissing(accessToken, missing(nestedTracks, Track::getId, EntityHydrator::needsDetails, cache::getTrack),
+                    MAX_TRACK_IDS, dataService::getTracksAsync, Track::getId, cache::putTrack));
+        }
+        
+        int fetched = 0;
+        for (int count : SpotifyDataService.await(allOf(fetches))) {
+            fetched += count;
+        }
+        
+        for (Track track : nestedTracks) {
+            apply(track, catalog);
+        }
+        logger.debug("Hydrated {} tracks, {} albums and {} artists with {} fetched entities",
+                nestedTracks.size(), nestedAlbums.size(), nestedArtists.size(), fetched);
+        return fetched;
+    }
+    
+    /**
+     * Fill in one track from the cache. The track belongs to the caller's response and is
+     * updated in place; its album and artists may be interned instances shared with other
+     * responses, so they are replaced by full or merged copies instead of being modified.
+     */
+    private void apply(Track track, boolean catalog) {
+        if (catalog) {
+            Track full = cache.getTrack(track.getId());
+            if (full != null && full != track) {
+                copyDetails(full, track);
+            }
+        }
+        track.setArtists(withFullArtists(track.getArtists()));
+        Album album = track.getAlbum();
+        if (album == null) {
+            return;
+        }
+        Album full = catalog && album.getId() != null ? cache.getAlbum(album.getId()) : null;
+        Album hydrated = full != null && full != album ? merged(full, album) : album;
+        List<Artist> artists = withFullArtists(hydrated.getArtists());
+        if (artists != hydrated.getArtists()) {
+            // Copy rather than modify the possibly shared album
+            hydrated = hydrated == album ? merged(album, album) : hydrated;
+            hydrated.setArtists(artists);
+        }
+        track.setAlbum(hydrated);
+    }
+    
+    /**
+     * The given artists with every cached full artist swapped in, or the same list if none is
+     */
+    private List<Artist> withFullArtists(List<Artist> artists) {
+        if (artists == null) {
+            return null;
+        }
+        List<Artist> replaced = null;
+        for (int i = 0; i < artists.size(); i++) {
+            Artist artist = artists.get(i);
+            Artist full = artist != null && artist.getId() != null ? cache.getArtist(artist.getId()) : null;
+            if (full != null && full != artist) {
+                if (replaced == null) {
+                    replaced = new ArrayList<>(artists);
+                }
+                replaced.set(i, full);
+            }
+        }
+        return replaced != null ? replaced : artists;
+    }
+    
+    /**
+     * Distinct ids of the entities that lack details and are not cached yet
+     */
+    private static <T> List<String> missing(List<T> entities, Function<T, String> id,
+                                            Predicate<T> incomplete, Function<String, T> cached) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (T entity : entities) {
+            String entityId = id.apply(entity);
+            if (entityId != null && incomplete.test(entity) && cached.apply(entityId) == null) {
+                ids.add(entityId);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+    
+    /**
+     * Fetch the ids in batches, all at once, storing every entity that comes back. Enrichment
+     * is best-effort: a failed batch is logged and its entities simply stay as they are.
+     */
+    private static <T> CompletableFuture<Integer> fetchMissing(String accessToken, List<String> ids, int batchSize,
+                                                              BatchFetcher<T> fetcher, Function<T, String> id,
+                                                              Consumer<T> store) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        List<CompletableFuture<List<T>>> batches = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            List<String> batchIds = ids.subList(start, Math.min(ids.size(), start + batchSize));
+            batches.add(bestEffort(fetcher.fetch(accessToken, batchIds), batchIds.size()));
+        }
+        CompletableFuture<List<List<T>>> all = allOf(batches);
+        CompletableFuture<Integer> stored = all.thenApply(results -> {
+            int count = 0;
+            for (List<T> batch : results) {
+                for (T entity : batch) {
+                    if (entity != null && id.apply(entity) != null) {
+                        store.accept(entity);
+                        count++;
+                    }
+                }
+            }
+            return count;
+        });
+        stored.whenComplete((value, error) -> {
+            if (stored.isCancelled()) {
+                all.cancel(true);
+            }
+        });
+        return stored;
+    }
+    
+    /**
+     * Turn a failed batch into an empty one, so it does not fail the other batches or the page
+     */
+    private static <T> CompletableFuture<List<T>> bestEffort(CompletableFuture<List<T>> batch, int size) {
+        CompletableFuture<List<T>> recovered = batch.handle((entities, error) -> {
+            if (error == null) {
+                return entities;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            logger.warn("Could not fetch a batch of {} entities, leaving them unhydrated: {}", size, cause.getMessage());
+            return Collections.<T>emptyList();
+        });
+        recovered.whenComplete((value, error) -> {
+            if (recovered.isCancelled()) {
+                batch.cancel(true);
+            }
+        });
+        return recovered;
+    }
+    
+    /**
+     * Wait for every future, cancelling them all if the combined future is cancelled
+     */
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<T> future : futures) {
+                        results.add(future.join());
+                    }
+                    return results;
+                });
+        all.whenComplete((value, error) -> {
+            if (all.isCancelled()) {
+                futures.forEach(future -> future.cancel(true));
+            }
+        });
+        return all;
+    }
+    
+    private static List<Track> tracksOf(Collection<PlayHistoryItem> plays) {
+        List<Track> tracks = new ArrayList<>(plays.size());
+        for (PlayHistoryItem play : plays) {
+            if (play.getTrack() != null) {
+                tracks.add(play.getTrack());
+            }
+        }
+        return tracks;
+    }
+    
+    private static void addAll(List<Artist> target, List<Artist> artists) {
+        if (artists != null) {
+            for (Artist artist : artists) {
+                if (artist != null) {
+                    target.add(artist);
+                }
+            }
+        }
+    }
+    
+    private static boolean needsDetails(Artist artist) {
+        return artist.getGenres() == null;
+    }
+    
+    private static boolean needsDetails(Album album) {
+        return album.getReleaseDate() == null || album.getTotalTracks() == 0 || isEmpty(album.getImages());
+    }
+    
+    private static boolean needsDetails(Track track) {
+        return track.getAlbum() == null || track.getDurationMs() == 0 || track.getArtists() == null;
+    }
+    
+    private static boolean isEmpty(List<Image> images) {
+        return images == null || images.isEmpty();
+    }
+    
+    /**
+     * A new album with the details of {@code full} where it has them and {@code target}'s otherwise
+     */
+    private static Album merged(Album full, Album target) {
+        return new Album(target.getId(),
+                full.getName() != null ? full.getName() : target.getName(),
+                full.getAlbumType() != null ? full.getAlbumType() : target.getAlbumType(),
+                target.getArtists() != null ? target.getArtists() : full.getArtists(),
+                !isEmpty(full.getImages()) ? full.getImages() : target.getImages(),
+                full.getReleaseDate() != null ? full.getReleaseDate() : target.getReleaseDate(),
+                full.getTotalTracks() > 0 ? full.getTotalTracks() : target.getTotalTracks(),
+                full.getExternalUrls() != null ? full.getExternalUrls() : target.getExternalUrls());
+    }
+    
+    private static void copyDetails(Track full, Track target) {
+        if (full.getName() != null) {
+            target.setName(full.getName());
+        }
+        if (full.getDurationMs() > 0) {
+            target.setDurationMs(full.getDurationMs());
+        }
+        if (full.getExternalUrls() != null) {
+            target.setExternalUrls(full.getExternalUrls());
+        }
+        if (target.getArtists() == null) {
+            target.setArtists(full.getArtists());
+        }
+        if (target.getAlbum() == null) {
+            target.setAlbum(full.getAlbum());
+        }
+        target.setPopularity(full.getPopularity());
+    }
+}
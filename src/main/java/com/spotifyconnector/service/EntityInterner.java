@@ -0,0 +1,210 @@
+package com.spotifyconnector.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.std.DelegatingDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Image;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Jackson module that maps every deserialized {@link Artist}, {@link Album} and {@link Image}
+ * onto one canonical instance per Spotify id (per URL for images).
+ *
+ * A play history repeats the same albums and artists thousands of times; with interning each
+ * of them, and its image URLs, is held once no matter how many tracks reference it. Canonical
+ * instances are weakly referenced, so they are dropped once nothing else points at them.
+ *
+ * Canonical instances are published to many responses and read without locks, so they are
+ * never modified once interned. When a richer copy of an entity arrives (for example a full
+ * artist after a simplified one) it replaces the canonical instance for everything parsed
+ * afterwards; references to the previous instance keep the version they were given. The models
+ * keep their setters for compatibility, so callers must treat interned instances as read-only.
+ */
+public class EntityInterner extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+    
+    private static EntityInterner instance;
+    
+    private final Pool<Artist> artists = new Pool<>();
+    private final Pool<Album> albums = new Pool<>();
+    private final Pool<Image> images = new Pool<>();
+    
+    EntityInterner() {
+        super("SpotifyEntityInterner");
+        setDeserializerModifier(new InterningModifier());
+    }
+    
+    public static synchronized EntityInterner getInstance() {
+        if (instance == null) {
+            instance = new EntityInterner();
+        }
+        return instance;
+    }
+    
+    /**
+     * Whether interning is enabled in the configuration
+     */
+    public static boolean isEnabled(SpotifyConfig config) {
+        return config.getBooleanProperty("spotify.intern.enabled", true);
+    }
+    
+    public Artist intern(Artist artist) {
+        return artist != null && artist.getId() != null
+                ? artists.intern(artist.getId(), artist, EntityInterner::detail)
+                : artist;
+    }
+    
+    public Album intern(Album album) {
+        return album != null && album.getId() != null
+                ? albums.intern(album.getId(), album, EntityInterner::detail)
+                : album;
+    }
+    
+    public Image intern(Image image) {
+        return image != null && image.getUrl() != null
+                ? images.intern(image.getUrl(), image, EntityInterner::detail)
+                : image;
+    }
+    
+    /**
+     * Number of live canonical instances across all entity types
+     */
+    public int getCanonicalCount() {
+        return artists.size() + albums.size() + images.size();
+    }
+    
+    /**
+     * How many optional details an instance carries; a copy with more replaces the canonical one
+     */
+    private static int detail(Artist artist) {
+        return present(artist.getName()) + present(artist.getGenres()) + present(artist.getImages())
+                + present(artist.getFollowers()) + present(artist.getExternalUrls())
+                + (artist.getPopularity() > 0 ? 1 : 0);
+    }
+    
+    private static int detail(Album album) {
+        return present(album.getName()) + present(album.getAlbumType()) + present(album.getArtists())
+                + present(album.getImages()) + present(album.getReleaseDate()) + present(album.getExternalUrls())
+                + (album.getTotalTracks() > 0 ? 1 : 0);
+    }
+    
+    private static int detail(Image image) {
+        return (image.getWidth() > 0 ? 1 : 0) + (image.getHeight() > 0 ? 1 : 0);
+    }
+    
+    private static int present(Object value) {
+        return value != null && !(value instanceof List && ((List<?>) value).isEmpty()) ? 1 : 0;
+    }
+    
+    /**
+     * Weakly held canonical instances of one entity type
+     */
+    private static class Pool<T> {
+        private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+        private final ReferenceQueue<T> collected = new ReferenceQueue<>();
+        
+        T intern(String key, T candidate, ToIntFunction<T> detail) {
+            expunge();
+            while (true) {
+                Entry<T> entry = entries.get(key);
+                T canonical = entry != null ? entry.get() : null;
+                if (canonical != null && (canonical == candidate
+                        || detail.applyAsInt(candidate) <= detail.applyAsInt(canonical))) {
+                    return canonical;
+                }
+                Entry<T> created = new Entry<>(key, candidate, collected);
+                boolean installed = entry == null
+                        ? entries.putIfAbsent(key, created) == null
+                        : entries.replace(key, entry, created);
+                if (installed) {
+                    return candidate;
+                }
+            }
+        }
+        
+        int size() {
+            expunge();
+            return entries.size();
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void expunge() {
+            Reference<? extends T> reference;
+            while ((reference = collected.poll()) != null) {
+                Entry<T> entry = (Entry<T>) reference;
+                entries.remove(entry.key, entry);
+            }
+        }
+    }
+    
+    private static class Entry<T> extends WeakReference<T> {
+        private final String key;
+        
+        Entry(String key, T referent, ReferenceQueue<T> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+    
+    /**
+     * Wraps the bean deserializers of the interned types
+     */
+    private class InterningModifier extends BeanDeserializerModifier {
+        @Override
+        public JsonDeserializer<?> modifyDeserializer(DeserializationConfig deserializationConfig,
+                                                      BeanDescription beanDesc,
+                                                      JsonDeserializer<?> deserializer) {
+            Class<?> beanClass = beanDesc.getBeanClass();
+            if (beanClass == Artist.class) {
+                return new InterningDeserializer<>(deserializer, Artist.class, EntityInterner.this::intern);
+            }
+            if (beanClass == Album.class) {
+                return new InterningDeserializer<>(deserializer, Album.class, EntityInterner.this::intern);
+            }
+            if (beanClass == Image.class) {
+                return new InterningDeserializer<>(deserializer, Image.class, EntityInterner.this::intern);
+            }
+            return deserializer;
+        }
+    }
+    
+    private static class InterningDeserializer<T> extends DelegatingDeserializer {
+        private static final long serialVersionUID = 1L;
+        
+        private final Class<T> type;
+        private final Function<T, T> interner;
+        
+        InterningDeserializer(JsonDeserializer<?> delegatee, Class<T> type, Function<T, T> interner) {
+            super(delegatee);
+            this.type = type;
+            this.interner = interner;
+        }
+        
+        @Override
+        protected JsonDeserializer<?> newDelegatingInstance(JsonDeserializer<?> newDelegatee) {
+            return new InterningDeserializer<>(newDelegatee, type, interner);
+        }
+        
+        @Override
+        public Object deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            Object value = super.deserialize(parser, context);
+            return type.isInstance(value) ? interner.apply(type.cast(value)) : value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.spotifyconnector.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent response latencies per endpoint, used to derive adaptive timeouts and hedge delays.
+ *
+ * Each endpoint keeps a ring buffer of its last {@code windowSize} successful latencies;
+ * percentiles are computed over that window, so they follow the API as it speeds up or
+ * degrades. Until an endpoint has {@code minSamples} observations no estimate is given.
+ */
+public class LatencyTracker {
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final int windowSize;
+    private final int minSamples;
+    
+    public LatencyTracker(int windowSize, int minSamples) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minSamples = Math.max(1, minSamples);
+    }
+    
+    public void record(String endpoint, long latencyMillis) {
+        windows.computeIfAbsent(endpoint, key -> new Window(windowSize)).add(latencyMillis);
+    }
+    
+    /**
+     * Get the given percentile (0-100) of recent latencies, or -1 when there are too few samples
+     */
+    public long percentile(String endpoint, double percentile) {
+        Window window = windows.get(endpoint);
+        return window != null ? window.percentile(percentile, minSamples) : -1;
+    }
+    
+    private static class Window {
+        private final long[] samples;
+        private int next;
+        private int count;
+        
+        Window(int size) {
+            this.samples = new long[size];
+        }
+        
+        synchronized void add(long value) {
+            samples[next] = value;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+        
+        long percentile(double percentile, int minSamples) {
+            long[] sorted;
+            synchronized (this) {
+                if (count < minSamples) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Track;
+import com.spotifyconnector.model.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Syncs many accounts in parallel: profile, incremental recently played history and,
+ * optionally, top artists and tracks.
+ *
+ * Every account's pipeline runs on its own virtual thread when the runtime supports them
+ * (Java 21+), otherwise on a platform pool sized to the account cap. At most
+ * {@code spotify.sync.maxConcurrent} accounts are synced at once, admitted in arrival order by
+ * a fair semaphore. The global cap on API calls is the {@link RequestScheduler}'s own: every
+ * individual call, including the pages and hydration batches inside a history sync, takes one
+ * of its {@code spotify.ratelimit.maxConcurrent} slots, and waiting calls get slots first come,
+ * first served, so no account can monopolize the rate limit. Progress is logged as accounts
+ * synced per second.
+ */
+public class MultiAccountSyncEngine {
+    private static final Logger logger = LoggerFactory.getLogger(MultiAccountSyncEngine.class);
+    
+    private static final int TOP_ITEMS_LIMIT = 50;
+    
+    private final SpotifyDataService dataService;
+    private final RecentlyPlayedSync historySync;
+    private final Semaphore accountPermits;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final boolean syncTopItems;
+    private final String topTimeRange;
+    private final long progressIntervalNanos;
+    
+    public MultiAccountSyncEngine(SpotifyDataService dataService, RecentlyPlayedSync historySync) {
+        this(dataService, historySync, SpotifyConfig.getInstance().getIntProperty("spotify.sync.maxConcurrent",
+                RequestScheduler.getInstance().getMaxConcurrent()));
+    }
+    
+    /**
+     * Create an engine syncing at most maxConcurrent accounts at once; their API calls share
+     * the request scheduler's slots
+     */
+    public MultiAccountSyncEngine(SpotifyDataService dataService, RecentlyPlayedSync historySync, int maxConcurrent) {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        int concurrency = Math.max(1, maxConcurrent);
+        this.dataService = dataService;
+        this.historySync = historySync;
+        this.accountPermits = new Semaphore(concurrency, true);
+        this.syncTopItems = config.getBooleanProperty("spotify.sync.topItems", false);
+        this.topTimeRange = config.getProperty("spotify.sync.topTimeRange", "medium_term");
+        this.progressIntervalNanos = TimeUnit.SECONDS.toNanos(config.getLongProperty("spotify.sync.progressSeconds", 10));
+        
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformExecutor(concurrency);
+        logger.info("Multi-account sync: accounts={}, apiCalls={}, virtualThreads={}",
+                concurrency, RequestScheduler.getInstance().getMaxConcurrent(), virtualThreads);
+    }
+    
+    /**
+     * Sync every account, waiting until all have finished; each result is handed to the
+     * listener as soon as its account completes and is not retained afterwards
+     */
+    public SyncReport syncAll(Collection<Account> accounts, Consumer<AccountResult> listener) throws InterruptedException {
+        long start = System.nanoTime();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong lastProgress = new AtomicLong(start);
+        
+        List<Future<?>> tasks = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            tasks.add(executor.submit(() -> {
+                try {
+                    AccountResult result = syncAccount(account);
+                    succeeded.incrementAndGet();
+                    if (listener != null) {
+                        listener.accept(result);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    logger.warn("Sync failed for {}: {}", account.getUserId(), e.getMessage());
+                }
+                logProgress(start, lastProgress, succeeded.get() + failed.get(), accounts.size());
+            }));
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                logger.error("Sync task crashed", e.getCause());
+            }
+        }
+        
+        SyncReport report = new SyncReport(accounts.size(), succeeded.get(), failed.get(), System.nanoTime() - start);
+        logger.info("Multi-account sync finished: {}", report);
+        return report;
+    }
+    
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Run one account's pipeline once an account permit is free, retrying it once with a
+     * refreshed token after a 401
+     */
+    private AccountResult syncAccount(Account account) throws IOException {
+        try {
+            accountPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a sync permit");
+        }
+        try {
+            return syncAdmitted(account);
+        } finally {
+            accountPermits.release();
+        }
+    }
+    
+    private AccountResult syncAdmitted(Account account) throws IOException {
+        String accessToken = account.getTokens().getAccessToken();
+        try {
+            return runPipeline(account, accessToken);
+        } catch (SpotifyApiException e) {
+            if (!e.isUnauthorized()) {
+                throw e;
+            }
+            logger.info("Access token for {} was rejected, refreshing", account.getUserId());
+            return runPipeline(account, account.getTokens().getAccessTokenAfterRejection(accessToken));
+        }
+    }
+    
+    private AccountResult runPipeline(Account account, String accessToken) throws IOException {
+        UserProfile profile = dataService.getUserProfile(accessToken);
+        RecentlyPlayedSync.SyncResult history = historySync.sync(account.getUserId(), accessToken);
+        SpotifyDataService.TopItemsResponse<Artist> topArtists = null;
+        SpotifyDataService.TopItemsResponse<Track> topTracks = null;
+        if (syncTopItems) {
+            topArtists = dataService.getTopArtists(accessToken, topTimeRange, TOP_ITEMS_LIMIT);
+            topTracks = dataService.getTopTracks(accessToken, topTimeRange, TOP_ITEMS_LIMIT);
+        }
+        return new AccountResult(account.getUserId(), profile, history, topArtists, topTracks);
+    }
+    
+    private void logProgress(long start, AtomicLong lastProgress, int done, int total) {
+        long now = System.nanoTime();
+        long last = lastProgress.get();
+        if (done < total && now - last >= progressIntervalNanos && lastProgress.compareAndSet(last, now)) {
+            double seconds = Math.max(1e-9, (now - start) / 1e9);
+            logger.info("Synced {}/{} accounts ({} accounts/s)", done, total, String.format("%.1f", done / seconds));
+        }
+    }
+    
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() when running on Java 21+, otherwise null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    private static ExecutorService newPlatformExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "spotify-account-sync-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * An account to sync and the manager that keeps its token current
+     */
+    public static class Account {
+        private final String userId;
+        private final TokenManager tokens;
+        
+        public Account(String userId, TokenManager tokens) {
+            this.userId = userId;
+            this.tokens = tokens;
+        }
+        
+        public String getUserId() { return userId; }
+        public TokenManager getTokens() { return tokens; }
+    }
+    
+    /**
+     * Everything fetched for one account; top items are null unless {@code spotify.sync.topItems} is set
+     */
+    public static class AccountResult {
+        private final String userId;
+        private final UserProfile profile;
+        private final RecentlyPlayedSync.SyncResult history;
+        private final SpotifyDataService.TopItemsResponse<Artist> topArtists;
+        private final SpotifyDataService.TopItemsResponse<Track> topTracks;
+        
+        public AccountResult(String userId, UserProfile profile, RecentlyPlayedSync.SyncResult history,
+                             SpotifyDataService.TopItemsResponse<Artist> topArtists,
+                             SpotifyDataService.TopItemsResponse<Track> topTracks) {
+            this.userId = userId;
+            this.profile = profile;
+            this.history = history;
+            this.topArtists = topArtists;
+            this.topTracks = topTracks;
+        }
+        
+        public String getUserId() { return userId; }
+        public UserProfile getProfile() { return profile; }
+        public RecentlyPlayedSync.SyncResult getHistory() { return history; }
+        public SpotifyDataService.TopItemsResponse<Artist> getTopArtists() { return topArtists; }
+        public SpotifyDataService.TopItemsResponse<Track> getTopTracks() { return topTracks; }
+    }
+    
+    /**
+     * Outcome of one multi-account run
+     */
+    public static class SyncReport {
+        private final int accounts;
+        private final int succeeded;
+        private final int failed;
+        private final long elapsedNanos;
+        
+        public SyncReport(int accounts, int succeeded, int failed, long elapsedNanos) {
+            this.accounts = accounts;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        public int getAccounts() { return accounts; }
+        public int getSucceeded() { return succeeded; }
+        public int getFailed() { return failed; }
+        public long getElapsedMillis() { return TimeUnit.NANOSECONDS.toMillis(elapsedNanos); }
+        
+        public double getAccountsPerSecond() {
+            return elapsedNanos > 0 ? (succeeded + failed) / (elapsedNanos / 1e9) : 0;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("SyncReport{accounts=%d, succeeded=%d, failed=%d, elapsed=%d ms, rate=%.1f accounts/s}",
+                    accounts, succeeded, failed, getElapsedMillis(), getAccountsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.PlayHistoryItem;
+import com.spotifyconnector.model.RecentlyPlayedResponse;
+import com.spotifyconnector.store.PlayHistoryStore;
+import com.spotifyconnector.store.SyncCursorStore;
+import com.spotifyconnector.store.SyncJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Incremental sync of a user's recently played history.
+ *
+ * Only plays newer than the user's persisted high-water mark are requested (via the
+ * {@code after} cursor). They are merged into the local store, which deduplicates on
+ * {@code played_at} + track id, and the mark is advanced once the page is stored.
+ * With a {@link SyncJournal}, each page and its new mark are first logged together, so a
+ * crash mid-sync neither loses plays nor moves the mark past unstored ones.
+ * With {@code spotify.sync.enrichArtists} set, each page's artists are enriched with
+ * genres and popularity before they are stored; {@code spotify.sync.hydrate} also fills in
+ * incomplete albums and tracks.
+ */
+public class RecentlyPlayedSync {
+    private static final Logger logger = LoggerFactory.getLogger(RecentlyPlayedSync.class);
+    
+    private static final int PAGE_SIZE = 50;
+    
+    private final SpotifyDataService dataService;
+    private final PlayHistoryStore historyStore;
+    private final SyncCursorStore cursorStore;
+    private final SyncJournal journal;
+    private final int maxPages;
+    private final EntityHydrator hydrator;
+    private final boolean hydrateCatalog;
+    
+    public RecentlyPlayedSync(SpotifyDataService dataService, PlayHistoryStore historyStore, SyncCursorStore cursorStore) {
+        this(dataService, historyStore, cursorStore, null);
+    }
+    
+    /**
+     * Create a sync that commits pages through the given journal, which must wrap the same
+     * history and cursor stores; without one, each page is stored and its cursor saved directly
+     */
+    public RecentlyPlayedSync(SpotifyDataService dataService, PlayHistoryStore historyStore, SyncCursorStore cursorStore,
+                              SyncJournal journal) {
+        this.dataService = dataService;
+        this.historyStore = historyStore;
+        this.cursorStore = cursorStore;
+        this.journal = journal;
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        this.maxPages = config.getIntProperty("spotify.sync.maxPages", 10);
+        this.hydrateCatalog = config.getBooleanProperty("spotify.sync.hydrate", false);
+        this.hydrator = hydrateCatalog || config.getBooleanProperty("spotify.sync.enrichArtists", false)
+                ? new EntityHydrator(dataService)
+                : null;
+    }
+    
+    /**
+     * Get the default location of the cursor file, {@code spotify.sync.dir} or ~/.spotify-connector
+     */
+    public static Path defaultStateDirectory() {
+        String dir = SpotifyConfig.getInstance().getProperty("spotify.sync.dir",
+                Paths.get(System.getProperty("user.home"), ".spotify-connector").toString());
+        return Paths.get(dir);
+    }
+    
+    /**
+     * Fetch and store every play newer than the user's high-water mark
+     */
+    public SyncResult sync(String userId, String accessToken) throws IOException {
+        long cursor = cursorStore.getCursor(userId);
+        long startCursor = cursor;
+        int fetched = 0;
+        int added = 0;
+        int pages = 0;
+        
+        while (pages < maxPages) {
+            String after = cursor > 0 ? Long.toString(cursor) : null;
+            RecentlyPlayedResponse response = dataService.getRecentlyPlayedTracks(accessToken, PAGE_SIZE, after, null);
+            pages++;
+            
+            List<PlayHistoryItem> items = response.getItems();
+            if (items == null || items.isEmpty()) {
+                break;
+            }
+            fetched += items.size();
+            if (hydrateCatalog) {
+                hydrator.hydratePlays(accessToken, items);
+            } else if (hydrator != null) {
+                hydrator.enrichPlays(accessToken, items);
+            }
+            
+            long newest = newestPlay(response);
+            if (journal != null) {
+                added += journal.commit(userId, items, Math.max(cursor, newest));
+            } else {
+                added += historyStore.append(userId, items);
+            }
+            if (newest <= cursor) {
+                break;
+            }
+            cursor = newest;
+            if (journal == null) {
+                cursorStore.advance(userId, cursor);
+            }
+            
+            if (items.size() < PAGE_SIZE || response.getNext() == null) {
+                break;
+            }
+        }
+        
+        SyncResult result = new SyncResult(userId, pages, fetched, added, startCursor, cursor);
+        logger.debug("Recently played sync: {}", result);
+        return result;
+    }
+    
+    /**
+     * Newest play in a page, taken from the {@code after} cursor or the items themselves
+     */
+    private static long newestPlay(RecentlyPlayedResponse response) {
+        long newest = 0;
+        for (PlayHistoryItem item : response.getItems()) {
+            newest = Math.max(newest, item.getPlayedAtMillis());
+        }
+        if (response.getCursors() != null && response.getCursors().getAfter() != null) {
+            try {
+                newest = Math.max(newest, Long.parseLong(response.getCursors().getAfter()));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring non-numeric after cursor: {}", response.getCursors().getAfter());
+            }
+        }
+        return newest;
+    }
+    
+    /**
+     * Outcome of one incremental sync
+     */
+    public static class SyncResult {
+        private final String userId;
+        private final int pages;
+        private final int fetched;
+        private final int added;
+        private final long previousCursor;
+        private final long cursor;
+        
+        public SyncResult(String userId, int pages, int fetched, int added, long previousCursor, long cursor) {
+            this.userId = userId;
+            this.pages = pages;
+            this.fetched = fetched;
+            this.added = added;
+            this.previousCursor = previousCursor;
+            this.cursor = cursor;
+        }
+        
+        public String getUserId() { return userId; }
+        public int getPages() { return pages; }
+        public int getFetched() { return fetched; }
+        public int getAdded() { return added; }
+        public int getDuplicates() { return fetched - added; }
+        public long getPreviousCursor() { return previousCursor; }
+        public long getCursor() { return cursor; }
+        
+        @Override
+        public String toString() {
+            return String.format("SyncResult{user='%s', pages=%d, fetched=%d, added=%d, cursor=%d->%d}",
+                    userId, pages, fetched, added, previousCursor, cursor);
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.metrics.ApiMetrics;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Central scheduler that every Spotify API call goes through.
+ *
+ * Each endpoint has its own token bucket. A 429 pauses all endpoints for the
+ * {@code Retry-After} period, because Spotify enforces its limit per application.
+ * 5xx responses and network failures on idempotent requests are retried with
+ * jittered exponential backoff. At most {@code maxConcurrent} calls are in flight; further
+ * callers wait in a bounded queue and are rejected once it is full or their wait times out.
+ * A call waiting to be retried gives up its slot and queues for a new one.
+ *
+ * Idempotent GETs additionally get an adaptive deadline for their response headers derived from
+ * the endpoint's recent p99, a hedged second copy once they run past the endpoint's p95, and a
+ * per-endpoint {@link CircuitBreaker} that fails fast while the endpoint keeps failing. Reading
+ * the body is left to the transport's own timeouts and never counts against the breaker.
+ *
+ * Every exchange, retry, hedge and rejected call is recorded in {@link ApiMetrics}.
+ *
+ * Calls are fully asynchronous: waits and retries are timer callbacks and requests run on
+ * OkHttp's dispatcher, so no thread is parked per request. {@link #execute} is a thin
+ * blocking wrapper over {@link #executeAsync}.
+ */
+public class RequestScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RequestScheduler.class);
+    
+    private static RequestScheduler instance;
+    
+    private final OkHttpClient httpClient;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong pausedUntilNanos = new AtomicLong(System.nanoTime());
+    private final Semaphore slots;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Queue<ScheduledCall> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService timer;
+    
+    private final double requestsPerSecond;
+    private final double burst;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long queueTimeoutMillis;
+    private final int maxRetries;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final long maxRetryAfterSeconds;
+    private final LatencyTracker latencyTracker;
+    private final ApiMetrics metrics = ApiMetrics.getInstance();
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final double timeoutMultiplier;
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+    
+    RequestScheduler(OkHttpClient httpClient, SpotifyConfig config) {
+        this.httpClient = httpClient;
+        this.requestsPerSecond = config.getIntProperty("spotify.ratelimit.requestsPerSecond", 10);
+        this.burst = config.getIntProperty("spotify.ratelimit.burst", 20);
+        this.maxConcurrent = config.getIntProperty("spotify.ratelimit.maxConcurrent", 64);
+        this.queueCapacity = config.getIntProperty("spotify.ratelimit.queueCapacity", 256);
+        this.queueTimeoutMillis = config.getLongProperty("spotify.ratelimit.queueTimeoutMs", 30_000);
+        this.maxRetries = config.getIntProperty("spotify.ratelimit.maxRetries", 4);
+        this.backoffBaseMillis = config.getLongProperty("spotify.ratelimit.backoffBaseMs", 500);
+        this.backoffMaxMillis = config.getLongProperty("spotify.ratelimit.backoffMaxMs", 30_000);
+        this.maxRetryAfterSeconds = config.getLongProperty("spotify.ratelimit.maxRetryAfterSeconds", 120);
+        this.latencyTracker = new LatencyTracker(config.getIntProperty("spotify.latency.window", 256),
+                config.getIntProperty("spotify.latency.minSamples", 20));
+        this.hedgingEnabled = config.getBooleanProperty("spotify.latency.hedging", true);
+        this.hedgePercentile = config.getIntProperty("spotify.latency.hedgePercentile", 95);
+        this.timeoutMultiplier = config.getIntProperty("spotify.latency.timeoutMultiplier", 3);
+        this.minTimeoutMillis = config.getLongProperty("spotify.latency.minTimeoutMs", 2_000);
+        this.maxTimeoutMillis = config.getLongProperty("spotify.latency.maxTimeoutMs",
+                TimeUnit.SECONDS.toMillis(config.getLongProperty("spotify.http.timeoutSeconds", 30)));
+        this.breakerFailureThreshold = config.getIntProperty("spotify.breaker.failureThreshold", 5);
+        this.breakerOpenMillis = config.getLongProperty("spotify.breaker.openMs", 30_000);
+        this.slots = new Semaphore(maxConcurrent);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spotify-request-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public static synchronized RequestScheduler getInstance() {
+        if (instance == null) {
+            instance = new RequestScheduler(SpotifyHttpTransport.getInstance().getClient(), SpotifyConfig.getInstance());
+        }
+        return instance;
+    }
+    
+    /**
+     * Execute a request under rate limiting and retry policy, blocking until it completes.
+     *
+     * The returned response may still be unsuccessful once retries are exhausted or the
+     * status is not retryable; the caller owns it and must close it.
+     */
+    public Response execute(Request request) throws IOException {
+        ScheduledCall call = executeAsync(request);
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + call.endpoint);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+    
+    /**
+     * Execute a request asynchronously under rate limiting and retry policy.
+     *
+     * Cancelling the returned future removes it from the queue, cancels any pending retry
+     * and aborts the underlying HTTP call.
+     */
+    public ScheduledCall executeAsync(Request request) {
+        ScheduledCall call = new ScheduledCall(request);
+        // Never overtake queued calls, so slots go to callers in arrival order
+        if (pending.isEmpty() && slots.tryAcquire()) {
+            call.holdsSlot.set(true);
+            attempt(call);
+            return call;
+        }
+        if (waiting.incrementAndGet() > queueCapacity) {
+            waiting.decrementAndGet();
+            metrics.recordRejected(call.endpoint);
+            call.completeExceptionally(new SpotifyApiException(0,
+                    "Request queue full (" + queueCapacity + " waiting), rejected call to " + call.endpoint));
+            return call;
+        }
+        enqueue(call);
+        return call;
+    }
+    
+    /**
+     * Number of callers currently waiting for a slot
+     */
+    public int getQueuedRequests() {
+        return waiting.get();
+    }
+    
+    /**
+     * Maximum number of calls in flight at once
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    
+    /**
+     * Number of calls currently holding a slot
+     */
+    public int getActiveRequests() {
+        return maxConcurrent - slots.availablePermits();
+    }
+    
+    /**
+     * Derive a stable endpoint key from a URL, collapsing Spotify ids into a placeholder
+     */
+    public static String endpointKey(HttpUrl url) {
+        StringBuilder key = new StringBuilder(url.host());
+        List<String> segments = url.pathSegments();
+        for (String segment : segments) {
+            key.append('/').append(isSpotifyId(segment) ? "{id}" : segment);
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Convert the failure of an asynchronous call back into the checked exception it carried
+     */
+    static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+    
+    private static boolean isSpotifyId(String segment) {
+        if (segment.length() != 22) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isLetterOrDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void drainPending() {
+        while (!pending.isEmpty() && slots.tryAcquire()) {
+            ScheduledCall call = pending.poll();
+            if (call == null) {
+                slots.release();
+                return;
+            }
+            waiting.decrementAndGet();
+            cancelTimer(call);
+            if (call.isDone()) {
+                slots.release();
+                continue;
+            }
+            call.holdsSlot.set(true);
+            timer.execute(() -> attempt(call));
+        }
+    }
+    
+    /**
+     * Queue a call, already counted as waiting, until a slot frees up or its wait times out
+     */
+    private void enqueue(ScheduledCall call) {
+        pending.add(call);
+        call.timerTask = timer.schedule(() -> expire(call), queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        drainPending();
+    }
+    
+    /**
+     * Take a slot again for a call coming back from a retry wait, queueing behind the callers
+     * already waiting if none is free
+     */
+    private void reacquire(ScheduledCall call) {
+        if (call.isDone()) {
+            return;
+        }
+        if (pending.isEmpty() && slots.tryAcquire()) {
+            call.holdsSlot.set(true);
+            attempt(call);
+            return;
+        }
+        waiting.incrementAndGet();
+        enqueue(call);
+    }
+    
+    private void expire(ScheduledCall call) {
+        if (pending.remove(call)) {
+            waiting.decrementAndGet();
+            metrics.recordRejected(call.endpoint);
+            call.completeExceptionally(new SpotifyApiException(0,
+                    "Timed out after " + queueTimeoutMillis + " ms waiting for a request slot for " + call.endpoint));
+        }
+    }
+    
+    private void attempt(ScheduledCall call) {
+        if (call.isDone()) {
+            finish(call);
+            return;
+        }
+        if (call.idempotent && !breaker(call.endpoint).allowRequest()) {
+            finish(call);
+            metrics.recordRejected(call.endpoint);
+            call.completeExceptionally(new SpotifyApiException(503,
+                    "Circuit open for " + call.endpoint + ", failing fast while the API is degraded"));
+            return;
+        }
+        long waitNanos = Math.max(bucket(call.endpoint).reserve(1), pausedUntilNanos.get() - System.nanoTime());
+        if (waitNanos > 0) {
+            call.timerTask = timer.schedule(() -> send(call), waitNanos, TimeUnit.NANOSECONDS);
+        } else {
+            send(call);
+        }
+    }
+    
+    private void send(ScheduledCall call) {
+        if (call.isDone()) {
+            finish(call);
+            return;
+        }
+        Attempt attempt = new Attempt(call);
+        call.current.set(attempt);
+        attempt.launch(false);
+        if (call.isCancelled()) {
+            attempt.cancelAll();
+            return;
+        }
+        if (call.idempotent && hedgingEnabled) {
+            long hedgeDelay = latencyTracker.percentile(call.endpoint, hedgePercentile);
+            if (hedgeDelay > 0) {
+                call.timerTask = timer.schedule(() -> attempt.launch(true), hedgeDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    private void onResponse(ScheduledCall call, Response response) {
+        int code = response.code();
+        if (call.idempotent) {
+            if (code >= 500) {
+                breaker(call.endpoint).onFailure();
+            } else {
+                breaker(call.endpoint).onSuccess();
+            }
+        }
+        if (code == 429 && call.attempt < maxRetries && !call.isDone()) {
+            long retryAfter = retryAfterSeconds(response);
+            response.close();
+            pause(retryAfter);
+            logger.warn("Rate limited on {}, pausing all endpoints for {} s", call.endpoint, retryAfter);
+            call.attempt++;
+            metrics.recordRetry(call.endpoint);
+            retry(call, TimeUnit.SECONDS.toMillis(retryAfter));
+        } else if (code >= 500 && call.idempotent && call.attempt < maxRetries && !call.isDone()) {
+            response.close();
+            long delay = backoffMillis(call.attempt++);
+            logger.warn("Server error {} on {}, retrying in {} ms", code, call.endpoint, delay);
+            metrics.recordRetry(call.endpoint);
+            retry(call, delay);
+        } else {
+            finish(call);
+            if (!call.complete(response)) {
+                response.close();
+            }
+        }
+    }
+    
+    private void onFailure(ScheduledCall call, IOException e, boolean canceled) {
+        if (call.idempotent && !canceled) {
+            breaker(call.endpoint).onFailure();
+        }
+        if (call.isDone()) {
+            finish(call);
+        } else if (call.idempotent && call.attempt < maxRetries && !canceled) {
+            long delay = backoffMillis(call.attempt++);
+            logger.warn("Request to {} failed ({}), retrying in {} ms", call.endpoint, e.getMessage(), delay);
+            metrics.recordRetry(call.endpoint);
+            retry(call, delay);
+        } else {
+            finish(call);
+            call.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * Adaptive deadline for the response headers: a multiple of the endpoint's recent p99,
+     * within configured bounds
+     */
+    private long timeoutMillis(String endpoint) {
+        long p99 = latencyTracker.percentile(endpoint, 99);
+        if (p99 < 0) {
+            return maxTimeoutMillis;
+        }
+        return Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, (long) (p99 * timeoutMultiplier)));
+    }
+    
+    private TokenBucket bucket(String endpoint) {
+        return buckets.computeIfAbsent(endpoint, key -> new TokenBucket(burst, requestsPerSecond));
+    }
+    
+    private CircuitBreaker breaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint,
+                key -> new CircuitBreaker(key, breakerFailureThreshold, breakerOpenMillis));
+    }
+    
+    /**
+     * Try a call again after a backoff or {@code Retry-After} wait. The call gives up its slot
+     * while it waits, so a burst of retries does not starve calls to other endpoints.
+     */
+    private void retry(ScheduledCall call, long delayMillis) {
+        finish(call);
+        call.timerTask = timer.schedule(() -> reacquire(call), delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Give back the call's slot exactly once and let a waiting call start
+     */
+    private void finish(ScheduledCall call) {
+        if (call.holdsSlot.compareAndSet(true, false)) {
+            slots.release();
+            drainPending();
+        }
+    }
+    
+    private static void cancelTimer(ScheduledCall call) {
+        ScheduledFuture<?> task = call.timerTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+    
+    private void pause(long seconds) {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        pausedUntilNanos.accumulateAndGet(until, Math::max);
+    }
+    
+    private long retryAfterSeconds(Response response) {
+        String header = response.header("Retry-After");
+        long seconds = 1;
+        if (header != null) {
+            try {
+                seconds = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                logger.debug("Unparseable Retry-After header: {}", header);
+            }
+        }
+        return Math.max(1, Math.min(seconds, maxRetryAfterSeconds));
+    }
+    
+    /**
+     * Full-jitter exponential backoff: a random delay up to base * 2^attempt, capped
+     */
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(backoffBaseMillis / 2, Math.max(backoffBaseMillis / 2 + 1, ceiling + 1));
+    }
+    
+    /**
+     * A request travelling through the scheduler; cancelling it aborts the HTTP call
+     */
+    public class ScheduledCall extends CompletableFuture<Response> {
+        private final Request request;
+        private final String endpoint;
+        private final boolean idempotent;
+        private final AtomicReference<Attempt> current = new AtomicReference<>();
+        private final AtomicBoolean holdsSlot = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timerTask;
+        private volatile int attempt;
+        
+        ScheduledCall(Request request) {
+            this.request = request;
+            this.endpoint = endpointKey(request.url());
+            this.idempotent = "GET".equals(request.method());
+        }
+        
+        public String getEndpoint() {
+            return endpoint;
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                if (pending.remove(this)) {
+                    waiting.decrementAndGet();
+                }
+                cancelTimer(this);
+                Attempt attempt = current.get();
+                if (attempt != null) {
+                    attempt.cancelAll();
+                }
+                finish(this);
+            }
+            return cancelled;
+        }
+    }
+    
+    /**
+     * One send of a scheduled call: the primary HTTP call plus, for slow GETs, a hedged copy.
+     * The first copy to produce a response wins and the other is cancelled; a failure only
+     * counts once no copy is left in flight.
+     */
+    private class Attempt {
+        private final ScheduledCall call;
+        private final List<Call> copies = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final ConcurrentHashMap<Call, ScheduledFuture<?>> headerDeadlines = new ConcurrentHashMap<>();
+        private final Set<Call> expired = ConcurrentHashMap.newKeySet();
+        
+        Attempt(ScheduledCall call) {
+            this.call = call;
+        }
+        
+        void launch(boolean hedge) {
+            if (settled.get() || call.isDone()) {
+                return;
+            }
+            if (hedge && !bucket(call.endpoint).tryAcquire(1)) {
+                // A hedge is optional; never let it eat into the rate limit
+                return;
+            }
+            Call httpCall = httpClient.newCall(call.request);
+            long deadlineMillis = timeoutMillis(call.endpoint);
+            if (call.idempotent) {
+                headerDeadlines.put(httpCall,
+                        timer.schedule(() -> expire(httpCall), deadlineMillis, TimeUnit.MILLISECONDS));
+            }
+            copies.add(httpCall);
+            outstanding.incrementAndGet();
+            if (hedge) {
+                logger.debug("Hedging slow request to {}", call.endpoint);
+                metrics.recordHedge(call.endpoint);
+            }
+            long startNanos = System.nanoTime();
+            httpCall.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call failed, IOException e) {
+                    disarm(failed);
+                    if (expired.contains(failed)) {
+                        failed(failed, timedOut(deadlineMillis), false, startNanos);
+                    } else {
+                        failed(failed, e, failed.isCanceled(), startNanos);
+                    }
+                }
+                
+                @Override
+                public void onResponse(Call answered, Response response) {
+                    long elapsedNanos = System.nanoTime() - startNanos;
+                    if (call.idempotent && !disarm(answered)) {
+                        // The header deadline fired first and is cancelling this copy
+                        response.close();
+                        failed(answered, timedOut(deadlineMillis), false, startNanos);
+                        return;
+                    }
+                    outstanding.decrementAndGet();
+                    if (!settled.compareAndSet(false, true)) {
+                        response.close();
+                        return;
+                    }
+                    cancelOthers(answered);
+                    metrics.recordCall(call.endpoint, response.code(), elapsedNanos);
+                    if (call.idempotent && response.code() < 500) {
+                        latencyTracker.record(call.endpoint, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+                    }
+                    RequestScheduler.this.onResponse(call, response);
+                }
+            });
+        }
+        
+        private void failed(Call failed, IOException e, boolean canceled, long startNanos) {
+            if (!canceled) {
+                metrics.recordCall(call.endpoint, 0, System.nanoTime() - startNanos);
+            }
+            if (outstanding.decrementAndGet() > 0 && !canceled) {
+                return;
+            }
+            if (settled.compareAndSet(false, true)) {
+                cancelOthers(failed);
+                RequestScheduler.this.onFailure(call, e, canceled);
+            }
+        }
+        
+        /**
+         * Cancel a copy whose response headers have not arrived before its deadline
+         */
+        private void expire(Call httpCall) {
+            if (headerDeadlines.remove(httpCall) != null) {
+                expired.add(httpCall);
+                httpCall.cancel();
+            }
+        }
+        
+        /**
+         * Stop a copy's header deadline; false if it has already fired
+         */
+        private boolean disarm(Call httpCall) {
+            ScheduledFuture<?> deadline = headerDeadlines.remove(httpCall);
+            if (deadline == null) {
+                return false;
+            }
+            deadline.cancel(false);
+            return true;
+        }
+        
+        private IOException timedOut(long deadlineMillis) {
+            return new InterruptedIOException(
+                    "No response headers from " + call.endpoint + " within " + deadlineMillis + " ms");
+        }
+        
+        void cancelAll() {
+            settled.set(true);
+            for (Call copy : copies) {
+                disarm(copy);
+                copy.cancel();
+            }
+        }
+        
+        private void cancelOthers(Call winner) {
+            for (Call copy : copies) {
+                if (copy != winner) {
+                    disarm(copy);
+                    copy.cancel();
+                }
+            }
+        }
+    }
+}
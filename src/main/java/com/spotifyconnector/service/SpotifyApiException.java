@@ -0,0 +1,41 @@
+package com.spotifyconnector.service;
+
+import java.io.IOException;
+
+/**
+ * Raised when the Spotify API answers with a non-successful status code
+ */
+public class SpotifyApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+    
+    private final int statusCode;
+    
+    public SpotifyApiException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+    
+    public SpotifyApiException(int statusCode, String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+    
+    /**
+     * HTTP status code returned by Spotify, or 0 when the request never reached the API
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    public boolean isRateLimited() {
+        return statusCode == 429;
+    }
+    
+    public boolean isUnauthorized() {
+        return statusCode == 401;
+    }
+    
+    public boolean isServerError() {
+        return statusCode >= 500;
+    }
+}
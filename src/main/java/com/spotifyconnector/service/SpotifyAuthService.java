@@ -1,15 +1,21 @@
 package com.spotifyconnector.service;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.logging.PayloadLogger;
+import com.spotifyconnector.metrics.ApiCallEvent;
+import com.spotifyconnector.metrics.ApiMetrics;
+import com.spotifyconnector.metrics.DeserializationEvent;
+import com.spotifyconnector.model.TokenSet;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Service for handling Spotify OAuth authentication
@@ -21,55 +27,185 @@ public class SpotifyAuthService {
     private static final String USER_PROFILE_URL = "https://api.spotify.com/v1/me";
     
     private final SpotifyConfig config;
-    private final OkHttpClient httpClient;
+    private final RequestScheduler scheduler;
     private final ObjectMapper objectMapper;
+    private final PayloadLogger payloadLogger;
     
     public SpotifyAuthService() {
+        this(RequestScheduler.getInstance());
+    }
+    
+    SpotifyAuthService(RequestScheduler scheduler) {
         this.config = SpotifyConfig.getInstance();
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this.scheduler = scheduler;
         this.objectMapper = new ObjectMapper();
+        this.payloadLogger = new PayloadLogger(config);
     }
     
     /**
      * Exchange authorization code for access token
      */
     public String exchangeCodeForToken(String authorizationCode) throws IOException {
-        if (!config.isValid()) {
-            throw new IllegalStateException("Spotify configuration is not valid. Please check your credentials.");
+        return exchangeCodeForTokens(authorizationCode).getAccessToken();
+    }
+    
+    /**
+     * Exchange authorization code for the full token set, including the refresh token
+     */
+    public TokenSet exchangeCodeForTokens(String authorizationCode) throws IOException {
+        return executeTokenRequest(buildTokenRequest(authorizationCode), null);
+    }
+    
+    /**
+     * Exchange authorization code for access token without blocking the calling thread
+     */
+    public CompletableFuture<String> exchangeCodeForTokenAsync(String authorizationCode) {
+        return exchangeCodeForTokensAsync(authorizationCode).thenApply(TokenSet::getAccessToken);
+    }
+    
+    /**
+     * Exchange authorization code for the full token set without blocking the calling thread
+     */
+    public CompletableFuture<TokenSet> exchangeCodeForTokensAsync(String authorizationCode) {
+        Request request;
+        try {
+            request = buildTokenRequest(authorizationCode);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        
-        String credentials = config.getClientId() + ":" + config.getClientSecret();
-        String encodedCredentials = Base64.getEncoder().encodeToString(credentials.getBytes());
-        
+        return executeTokenRequestAsync(request, null);
+    }
+    
+    /**
+     * Obtain a new access token from a stored refresh token
+     */
+    public String refreshAccessToken(String refreshToken) throws IOException {
+        return refreshTokens(refreshToken).getAccessToken();
+    }
+    
+    /**
+     * Obtain a new token set from a refresh token. Spotify may rotate the refresh token;
+     * when it does not return one, the given refresh token stays valid and is kept.
+     */
+    public TokenSet refreshTokens(String refreshToken) throws IOException {
+        return executeTokenRequest(buildRefreshRequest(refreshToken), refreshToken);
+    }
+    
+    /**
+     * Obtain a new token set from a refresh token without blocking the calling thread
+     */
+    public CompletableFuture<TokenSet> refreshTokensAsync(String refreshToken) {
+        Request request;
+        try {
+            request = buildRefreshRequest(refreshToken);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return executeTokenRequestAsync(request, refreshToken);
+    }
+    
+    private TokenSet executeTokenRequest(Request request, String previousRefreshToken) throws IOException {
+        ApiCallEvent event = new ApiCallEvent();
+        event.begin();
+        Response response;
+        try {
+            response = scheduler.execute(request);
+        } catch (IOException | RuntimeException e) {
+            event.complete(RequestScheduler.endpointKey(request.url()), request.method(), 0, 0);
+            throw e;
+        }
+        try {
+            return readTokens(response, previousRefreshToken, event);
+        } finally {
+            response.close();
+        }
+    }
+    
+    private CompletableFuture<TokenSet> executeTokenRequestAsync(Request request, String previousRefreshToken) {
+        ApiCallEvent event = new ApiCallEvent();
+        event.begin();
+        return scheduler.executeAsync(request).handle((response, error) -> {
+            if (error != null) {
+                event.complete(RequestScheduler.endpointKey(request.url()), request.method(), 0, 0);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+            try {
+                return readTokens(response, previousRefreshToken, event);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                response.close();
+            }
+        });
+    }
+    
+    private Request buildRefreshRequest(String refreshToken) {
+        RequestBody formBody = new FormBody.Builder()
+                .add("grant_type", "refresh_token")
+                .add("refresh_token", refreshToken)
+                .build();
+        return buildTokenRequest(formBody);
+    }
+    
+    private Request buildTokenRequest(String authorizationCode) {
         RequestBody formBody = new FormBody.Builder()
                 .add("grant_type", "authorization_code")
                 .add("code", authorizationCode)
                 .add("redirect_uri", config.getRedirectUri())
                 .build();
+        return buildTokenRequest(formBody);
+    }
+    
+    private Request buildTokenRequest(RequestBody formBody) {
+        if (!config.isValid()) {
+            throw new IllegalStateException("Spotify configuration is not valid. Please check your credentials.");
+        }
         
-        Request request = new Request.Builder()
+        String credentials = config.getClientId() + ":" + config.getClientSecret();
+        String encodedCredentials = Base64.getEncoder().encodeToString(credentials.getBytes());
+        
+        return new Request.Builder()
                 .url(TOKEN_URL)
                 .post(formBody)
                 .addHeader("Authorization", "Basic " + encodedCredentials)
                 .addHeader("Content-Type", "application/x-www-form-urlencoded")
                 .build();
-        
-        try (Response response = httpClient.newCall(request).execute()) {
+    }
+    
+    private TokenSet readTokens(Response response, String previousRefreshToken, ApiCallEvent event) throws IOException {
+        String endpoint = RequestScheduler.endpointKey(response.request().url());
+        long bytes = 0;
+        try {
             if (!response.isSuccessful()) {
                 String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                throw new IOException("Failed to exchange code for token: " + response.code() + " - " + errorBody);
+                bytes = errorBody.getBytes(StandardCharsets.UTF_8).length;
+                throw new SpotifyApiException(response.code(), "Token request failed: " + response.code() + " - " + errorBody);
             }
             
+            long parseStart = System.nanoTime();
             String responseBody = response.body().string();
-            logger.debug("Token response: {}", responseBody);
+            bytes = responseBody.getBytes(StandardCharsets.UTF_8).length;
+            if (payloadLogger.shouldLog()) {
+                payloadLogger.log(TOKEN_URL, responseBody);
+            }
             
-            // Parse the response to extract access token
-            TokenResponse tokenResponse = objectMapper.readValue(responseBody, TokenResponse.class);
-            return tokenResponse.getAccessToken();
+            TokenSet tokens = null;
+            DeserializationEvent parse = new DeserializationEvent();
+            parse.begin();
+            try {
+                tokens = objectMapper.readValue(responseBody, TokenSet.class);
+            } finally {
+                parse.complete(TokenSet.class, bytes, tokens != null);
+            }
+            ApiMetrics.getInstance().recordBody(endpoint, System.nanoTime() - parseStart, bytes);
+            tokens.setExpiresAtMillis(System.currentTimeMillis() + tokens.getExpiresIn() * 1000L);
+            if (tokens.getRefreshToken() == null) {
+                tokens.setRefreshToken(previousRefreshToken);
+            }
+            logger.debug("Received {}", tokens);
+            return tokens;
+        } finally {
+            event.complete(endpoint, response.request().method(), response.code(), bytes);
         }
     }
     
@@ -82,13 +218,17 @@ public class SpotifyAuthService {
                 .addHeader("Authorization", "Bearer " + accessToken)
                 .build();
         
-        try (Response response = httpClient.newCall(request).execute()) {
+        try (Response response = scheduler.execute(request)) {
             if (!response.isSuccessful()) {
                 String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                throw new IOException("Failed to get user profile: " + response.code() + " - " + errorBody);
+                throw new SpotifyApiException(response.code(), "Failed to get user profile: " + response.code() + " - " + errorBody);
             }
             
-            return response.body().string();
+            long readStart = System.nanoTime();
+            String profile = response.body().string();
+            ApiMetrics.getInstance().recordBody(RequestScheduler.endpointKey(response.request().url()),
+                    System.nanoTime() - readStart, profile.getBytes(StandardCharsets.UTF_8).length);
+            return profile;
         }
     }
     
@@ -112,36 +252,4 @@ public class SpotifyAuthService {
     public boolean isConfigurationValid() {
         return config.isValid();
     }
-    
-    /**
-     * Inner class for token response
-     */
-    private static class TokenResponse {
-        @JsonProperty("access_token")
-        private String accessToken;
-        
-        @JsonProperty("token_type")
-        private String tokenType;
-        
-        @JsonProperty("expires_in")
-        private int expiresIn;
-        
-        @JsonProperty("refresh_token")
-        private String refreshToken;
-        
-        @JsonProperty("scope")
-        private String scope;
-        
-        // Getters and setters
-        public String getAccessToken() { return accessToken; }
-        public void setAccessToken(String accessToken) { this.accessToken = accessToken; }
-        public String getTokenType() { return tokenType; }
-        public void setTokenType(String tokenType) { this.tokenType = tokenType; }
-        public int getExpiresIn() { return expiresIn; }
-        public void setExpiresIn(int expiresIn) { this.expiresIn = expiresIn; }
-        public String getRefreshToken() { return refreshToken; }
-        public void setRefreshToken(String refreshToken) { this.refreshToken = refreshToken; }
-        public String getScope() { return scope; }
-        public void setScope(String scope) { this.scope = scope; }
-    }
 }
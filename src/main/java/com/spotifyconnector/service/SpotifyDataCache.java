@@ -0,0 +1,236 @@
+package com.spotifyconnector.service;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.metrics.ApiMetrics;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.RecentlyPlayedResponse;
+import com.spotifyconnector.model.Track;
+import com.spotifyconnector.model.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Stale-while-revalidate cache in front of {@link SpotifyDataService}.
+ *
+ * Entries are keyed by endpoint, parameters and the user the access token belongs to, so a
+ * refreshed token keeps hitting the same entries. The owner of a token is looked up once,
+ * through the profile endpoint, and remembered under a SHA-256 digest of the token; bearer
+ * tokens themselves are never kept as keys. Values are cached as token buffer snapshots and
+ * every hit binds its own copy, so callers never share a mutable object. Fresh entries are
+ * returned straight from memory. Stale entries are returned too, while a background refresh
+ * runs; the change listener only fires when the refreshed data differs from what was cached.
+ * Memory is bounded by an estimated byte budget with least-recently-used eviction.
+ */
+public class SpotifyDataCache {
+    private static final Logger logger = LoggerFactory.getLogger(SpotifyDataCache.class);
+    
+    private static final int MAX_TOKEN_OWNERS = 64;
+    
+    /**
+     * Loads a fresh value from the API
+     */
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+    
+    private final SpotifyDataService dataService;
+    private final SpotifyConfig config;
+    private final ObjectMapper fingerprintMapper = new ObjectMapper();
+    private final ExecutorService refreshExecutor;
+    private final JavaType profileType;
+    private final JavaType recentlyPlayedType;
+    private final JavaType topArtistsType;
+    private final JavaType topTracksType;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, String> tokenOwners = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final long defaultTtlSeconds;
+    private long totalBytes;
+    
+    public SpotifyDataCache(SpotifyDataService dataService) {
+        this.dataService = dataService;
+        this.config = SpotifyConfig.getInstance();
+        this.maxBytes = config.getLongProperty("spotify.cache.maxBytes", 16L * 1024 * 1024);
+        this.defaultTtlSeconds = config.getLongProperty("spotify.cache.ttlSeconds", 60);
+        this.refreshExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "spotify-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TypeFactory types = fingerprintMapper.getTypeFactory();
+        this.profileType = types.constructType(UserProfile.class);
+        this.recentlyPlayedType = types.constructType(RecentlyPlayedResponse.class);
+        this.topArtistsType = types.constructParametricType(SpotifyDataService.TopItemsResponse.class, Artist.class);
+        this.topTracksType = types.constructParametricType(SpotifyDataService.TopItemsResponse.class, Track.class);
+    }
+    
+    public UserProfile getUserProfile(String accessToken, boolean revalidate, Consumer<UserProfile> onChange) throws IOException {
+        return get("profile", "", profileType, accessToken, revalidate,
+                () -> dataService.getUserProfile(accessToken), onChange);
+    }
+    
+    public RecentlyPlayedResponse getRecentlyPlayedTracks(String accessToken, int limit, boolean revalidate,
+                                                          Consumer<RecentlyPlayedResponse> onChange) throws IOException {
+        return get("recently-played", "limit=" + limit, recentlyPlayedType, accessToken, revalidate,
+                () -> dataService.getRecentlyPlayedTracks(accessToken, limit), onChange);
+    }
+    
+    public SpotifyDataService.TopItemsResponse<Artist> getTopArtists(String accessToken, String timeRange, int limit,
+                                                                    boolean revalidate,
+                                                                    Consumer<SpotifyDataService.TopItemsResponse<Artist>> onChange) throws IOException {
+        return get("top-artists", "time_range=" + timeRange + "&limit=" + limit, topArtistsType, accessToken, revalidate,
+                () -> dataService.getTopArtists(accessToken, timeRange, limit), onChange);
+    }
+    
+    public SpotifyDataService.TopItemsResponse<Track> getTopTracks(String accessToken, String timeRange, int limit,
+                                                                  boolean revalidate,
+                                                                  Consumer<SpotifyDataService.TopItemsResponse<Track>> onChange) throws IOException {
+        return get("top-tracks", "time_range=" + timeRange + "&limit=" + limit, topTracksType, accessToken, revalidate,
+                () -> dataService.getTopTracks(accessToken, timeRange, limit), onChange);
+    }
+    
+    /**
+     * Drop every cached entry
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        tokenOwners.clear();
+        totalBytes = 0;
+    }
+    
+    /**
+     * Estimated heap held by cached values, in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+    
+    /**
+     * Return the cached value when present and schedule a background refresh if it is stale
+     * (or {@code revalidate} is set); otherwise load it synchronously.
+     */
+    private <T> T get(String endpoint, String params, JavaType type, String accessToken, boolean revalidate,
+                      Loader<T> loader, Consumer<T> onChange) throws IOException {
+        String key = endpoint + "?" + params + "#" + owner(accessToken);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        
+        if (entry == null) {
+            T value = loader.load();
+            put(key, value);
+            return value;
+        }
+        
+        boolean stale = System.nanoTime() - entry.loadedAtNanos > TimeUnit.SECONDS.toNanos(ttlSeconds(endpoint));
+        if ((stale || revalidate) && entry.refreshing.compareAndSet(false, true)) {
+            refreshExecutor.execute(() -> refresh(key, entry, loader, onChange));
+        }
+        ApiMetrics.getInstance().recordCacheHit(endpoint, ApiMetrics.CacheHit.RESPONSE_CACHE);
+        return dataService.copyOf(entry.snapshot, type);
+    }
+    
+    /**
+     * Id of the user an access token belongs to. An unknown token costs one profile request,
+     * whose result is cached as that user's profile entry.
+     */
+    private String owner(String accessToken) throws IOException {
+        String digest = ValidatorCache.digest(accessToken);
+        synchronized (this) {
+            String userId = tokenOwners.get(digest);
+            if (userId != null) {
+                return userId;
+            }
+        }
+        UserProfile profile = dataService.getUserProfile(accessToken);
+        put("profile?#" + profile.getId(), profile);
+        synchronized (this) {
+            tokenOwners.put(digest, profile.getId());
+            Iterator<String> eldest = tokenOwners.keySet().iterator();
+            while (tokenOwners.size() > MAX_TOKEN_OWNERS && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return profile.getId();
+    }
+    
+    private <T> void refresh(String key, Entry previous, Loader<T> loader, Consumer<T> onChange) {
+        try {
+            T value = loader.load();
+            Entry refreshed = put(key, value);
+            if (refreshed.fingerprint != previous.fingerprint) {
+                logger.atDebug()
+                        .addArgument(() -> key.substring(0, key.indexOf('#')))
+                        .log("Cached response for {} changed, notifying listener");
+                if (onChange != null) {
+                    onChange.accept(value);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Background refresh failed: {}", e.getMessage());
+        } finally {
+            previous.refreshing.set(false);
+        }
+    }
+    
+    private Entry put(String key, Object value) throws IOException {
+        TokenBuffer snapshot = dataService.snapshot(value);
+        byte[] serialized = fingerprintMapper.writeValueAsBytes(snapshot);
+        CRC32 crc = new CRC32();
+        crc.update(serialized);
+        Entry entry = new Entry(snapshot, serialized.length, crc.getValue());
+        
+        synchronized (this) {
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                totalBytes -= old.weight;
+            }
+            totalBytes += entry.weight;
+            evict();
+        }
+        return entry;
+    }
+    
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && eldest.hasNext()) {
+            totalBytes -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+    
+    private long ttlSeconds(String endpoint) {
+        return config.getLongProperty("spotify.cache.ttl." + endpoint, defaultTtlSeconds);
+    }
+    
+    private static class Entry {
+        private final TokenBuffer snapshot;
+        private final long weight;
+        private final long fingerprint;
+        private final long loadedAtNanos = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        
+        Entry(TokenBuffer snapshot, long weight, long fingerprint) {
+            this.snapshot = snapshot;
+            this.weight = weight;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -1,16 +1,36 @@
 package com.spotifyconnector.service;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.logging.PayloadLogger;
+import com.spotifyconnector.metrics.ApiCallEvent;
+import com.spotifyconnector.metrics.ApiMetrics;
+import com.spotifyconnector.metrics.DeserializationEvent;
 import com.spotifyconnector.model.*;
-import okhttp3.OkHttpClient;
+import okhttp3.HttpUrl;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Service for retrieving Spotify user data
@@ -23,31 +43,81 @@ public class SpotifyDataService {
     private static final String TOP_ARTISTS_URL = BASE_URL + "/me/top/artists";
     private static final String TOP_TRACKS_URL = BASE_URL + "/me/top/tracks";
     private static final String USER_PROFILE_URL = BASE_URL + "/me";
+    private static final String ARTISTS_URL = BASE_URL + "/artists";
+    private static final String ALBUMS_URL = BASE_URL + "/albums";
+    private static final String TRACKS_URL = BASE_URL + "/tracks";
+    private static final int MAX_PAGE_SIZE = 50;
     
-    private final OkHttpClient httpClient;
+    private final RequestScheduler scheduler;
+    private final ApiMetrics metrics;
     private final ObjectMapper objectMapper;
+    private final JavaType topArtistsType;
+    private final JavaType topTracksType;
+    private final JavaType recentlyPlayedType;
+    private final JavaType userProfileType;
+    private final JavaType severalArtistsType;
+    private final JavaType severalAlbumsType;
+    private final JavaType severalTracksType;
+    private final String market;
+    private final PayloadLogger payloadLogger;
+    private final int pageParallelism;
+    private final ValidatorCache validatorCache;
+    private final ConcurrentHashMap<String, SharedCall> inFlight = new ConcurrentHashMap<>();
     
     public SpotifyDataService() {
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this(RequestScheduler.getInstance());
+    }
+    
+    SpotifyDataService(RequestScheduler scheduler) {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        this.scheduler = scheduler;
+        this.metrics = ApiMetrics.getInstance();
         this.objectMapper = new ObjectMapper();
+        this.market = config.getProperty("spotify.market", null);
+        if (EntityInterner.isEnabled(config)) {
+            objectMapper.registerModule(EntityInterner.getInstance());
+        }
+        this.topArtistsType = objectMapper.getTypeFactory().constructParametricType(TopItemsResponse.class, Artist.class);
+        this.topTracksType = objectMapper.getTypeFactory().constructParametricType(TopItemsResponse.class, Track.class);
+        this.recentlyPlayedType = objectMapper.constructType(RecentlyPlayedResponse.class);
+        this.userProfileType = objectMapper.constructType(UserProfile.class);
+        this.severalArtistsType = objectMapper.constructType(SeveralArtistsResponse.class);
+        this.severalAlbumsType = objectMapper.constructType(SeveralAlbumsResponse.class);
+        this.severalTracksType = objectMapper.constructType(SeveralTracksResponse.class);
+        this.payloadLogger = new PayloadLogger(config);
+        this.pageParallelism = config.getIntProperty("spotify.paging.parallelism", 4);
+        this.validatorCache = config.getBooleanProperty("spotify.conditional.enabled", true)
+                ? new ValidatorCache(config.getIntProperty("spotify.conditional.maxEntries", 512))
+                : null;
     }
     
     /**
      * Get user's recently played tracks
      */
     public RecentlyPlayedResponse getRecentlyPlayedTracks(String accessToken, int limit) throws IOException {
+        return await(getRecentlyPlayedTracksAsync(accessToken, limit));
+    }
+    
+    /**
+     * Get user's recently played tracks asynchronously
+     */
+    public CompletableFuture<RecentlyPlayedResponse> getRecentlyPlayedTracksAsync(String accessToken, int limit) {
         String url = RECENTLY_PLAYED_URL + "?limit=" + limit;
-        return makeRequest(url, accessToken, RecentlyPlayedResponse.class);
+        return makeRequestAsync(url, accessToken, recentlyPlayedType);
     }
     
     /**
      * Get user's recently played tracks with time range
      */
     public RecentlyPlayedResponse getRecentlyPlayedTracks(String accessToken, int limit, String after, String before) throws IOException {
+        return await(getRecentlyPlayedTracksAsync(accessToken, limit, after, before));
+    }
+    
+    /**
+     * Get user's recently played tracks with time range asynchronously
+     */
+    public CompletableFuture<RecentlyPlayedResponse> getRecentlyPlayedTracksAsync(String accessToken, int limit,
+                                                                                 String after, String before) {
         StringBuilder urlBuilder = new StringBuilder(RECENTLY_PLAYED_URL);
         urlBuilder.append("?limit=").append(limit);
         
@@ -58,56 +128,436 @@ public class SpotifyDataService {
             urlBuilder.append("&before=").append(before);
         }
         
-        return makeRequest(urlBuilder.toString(), accessToken, RecentlyPlayedResponse.class);
+        return makeRequestAsync(urlBuilder.toString(), accessToken, recentlyPlayedType);
     }
     
     /**
-     * Get user's top artists
+     * Get user's top artists; limits above one page are fetched page by page in parallel
      */
     public TopItemsResponse<Artist> getTopArtists(String accessToken, String timeRange, int limit) throws IOException {
+        return await(getTopArtistsAsync(accessToken, timeRange, limit));
+    }
+    
+    /**
+     * Get user's top artists asynchronously
+     */
+    public CompletableFuture<TopItemsResponse<Artist>> getTopArtistsAsync(String accessToken, String timeRange, int limit) {
+        if (limit > MAX_PAGE_SIZE) {
+            return collectAsync(limit, (offset, pageLimit) -> getTopArtistsAsync(accessToken, timeRange, pageLimit, offset));
+        }
         String url = TOP_ARTISTS_URL + "?time_range=" + timeRange + "&limit=" + limit;
-        return makeRequest(url, accessToken, TopItemsResponse.class);
+        return makeRequestAsync(url, accessToken, topArtistsType);
     }
     
     /**
-     * Get user's top tracks
+     * Get a single page of the user's top artists starting at the given offset
+     */
+    public TopItemsResponse<Artist> getTopArtists(String accessToken, String timeRange, int limit, int offset) throws IOException {
+        return await(getTopArtistsAsync(accessToken, timeRange, limit, offset));
+    }
+    
+    /**
+     * Get a single page of the user's top artists asynchronously
+     */
+    public CompletableFuture<TopItemsResponse<Artist>> getTopArtistsAsync(String accessToken, String timeRange, int limit, int offset) {
+        String url = TOP_ARTISTS_URL + "?time_range=" + timeRange + "&limit=" + limit + "&offset=" + offset;
+        return makeRequestAsync(url, accessToken, topArtistsType);
+    }
+    
+    /**
+     * Get user's top tracks; limits above one page are fetched page by page in parallel
      */
     public TopItemsResponse<Track> getTopTracks(String accessToken, String timeRange, int limit) throws IOException {
+        return await(getTopTracksAsync(accessToken, timeRange, limit));
+    }
+    
+    /**
+     * Get user's top tracks asynchronously
+     */
+    public CompletableFuture<TopItemsResponse<Track>> getTopTracksAsync(String accessToken, String timeRange, int limit) {
+        if (limit > MAX_PAGE_SIZE) {
+            return collectAsync(limit, (offset, pageLimit) -> getTopTracksAsync(accessToken, timeRange, pageLimit, offset));
+        }
         String url = TOP_TRACKS_URL + "?time_range=" + timeRange + "&limit=" + limit;
-        return makeRequest(url, accessToken, TopItemsResponse.class);
+        return makeRequestAsync(url, accessToken, topTracksType);
+    }
+    
+    /**
+     * Get a single page of the user's top tracks starting at the given offset
+     */
+    public TopItemsResponse<Track> getTopTracks(String accessToken, String timeRange, int limit, int offset) throws IOException {
+        return await(getTopTracksAsync(accessToken, timeRange, limit, offset));
+    }
+    
+    /**
+     * Get a single page of the user's top tracks asynchronously
+     */
+    public CompletableFuture<TopItemsResponse<Track>> getTopTracksAsync(String accessToken, String timeRange, int limit, int offset) {
+        String url = TOP_TRACKS_URL + "?time_range=" + timeRange + "&limit=" + limit + "&offset=" + offset;
+        return makeRequestAsync(url, accessToken, topTracksType);
     }
     
     /**
      * Get user profile
      */
     public UserProfile getUserProfile(String accessToken) throws IOException {
-        return makeRequest(USER_PROFILE_URL, accessToken, UserProfile.class);
+        return await(getUserProfileAsync(accessToken));
+    }
+    
+    /**
+     * Get user profile asynchronously
+     */
+    public CompletableFuture<UserProfile> getUserProfileAsync(String accessToken) {
+        return makeRequestAsync(USER_PROFILE_URL, accessToken, userProfileType);
+    }
+    
+    /**
+     * Get full artist objects for up to 50 ids in one request
+     */
+    public List<Artist> getArtists(String accessToken, List<String> ids) throws IOException {
+        return await(getArtistsAsync(accessToken, ids));
+    }
+    
+    /**
+     * Get full artist objects for up to 50 ids asynchronously; unknown ids come back as null
+     */
+    public CompletableFuture<List<Artist>> getArtistsAsync(String accessToken, List<String> ids) {
+        String url = ARTISTS_URL + "?ids=" + String.join(",", ids);
+        CompletableFuture<SeveralArtistsResponse> response = makeRequestAsync(url, accessToken, severalArtistsType);
+        return cancellable(response, response.thenApply(SeveralArtistsResponse::getArtists));
+    }
+    
+    /**
+     * Get full album objects for up to 20 ids asynchronously; unknown ids come back as null
+     */
+    public CompletableFuture<List<Album>> getAlbumsAsync(String accessToken, List<String> ids) {
+        String url = withMarket(ALBUMS_URL + "?ids=" + String.join(",", ids));
+        CompletableFuture<SeveralAlbumsResponse> response = makeRequestAsync(url, accessToken, severalAlbumsType);
+        return cancellable(response, response.thenApply(SeveralAlbumsResponse::getAlbums));
+    }
+    
+    /**
+     * Get full track objects for up to 50 ids asynchronously; unknown ids come back as null
+     */
+    public CompletableFuture<List<Track>> getTracksAsync(String accessToken, List<String> ids) {
+        String url = withMarket(TRACKS_URL + "?ids=" + String.join(",", ids));
+        CompletableFuture<SeveralTracksResponse> response = makeRequestAsync(url, accessToken, severalTracksType);
+        return cancellable(response, response.thenApply(SeveralTracksResponse::getTracks));
+    }
+    
+    /**
+     * Append the configured market to a catalog URL, if one is set. Endpoints that accept
+     * {@code market} leave out the long {@code available_markets} lists.
+     */
+    private String withMarket(String url) {
+        if (market == null) {
+            return url;
+        }
+        return url + (url.indexOf('?') >= 0 ? "&" : "?") + "market=" + market;
+    }
+    
+    /**
+     * Make a dependent stage cancel its source when it is cancelled itself
+     */
+    private static <S, T> CompletableFuture<T> cancellable(CompletableFuture<S> source, CompletableFuture<T> dependent) {
+        dependent.whenComplete((value, error) -> {
+            if (dependent.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return dependent;
+    }
+    
+    /**
+     * Fetches one page of top items asynchronously
+     */
+    private interface AsyncPageFetcher<T> {
+        CompletableFuture<TopItemsResponse<T>> fetch(int offset, int limit);
+    }
+    
+    /**
+     * Fetch the first page, then the remaining pages with at most {@code spotify.paging.parallelism}
+     * in flight, and merge them in rank order
+     */
+    private <T> CompletableFuture<TopItemsResponse<T>> collectAsync(int maxItems, AsyncPageFetcher<T> fetcher) {
+        return new PageCollector<>(fetcher, maxItems, pageParallelism).start();
+    }
+    
+    /**
+     * Collects the pages of one top items request. A failed page fails the result, and a
+     * failed or cancelled result cancels every page still in flight.
+     */
+    private static final class PageCollector<T> {
+        private final AsyncPageFetcher<T> fetcher;
+        private final int maxItems;
+        private final int parallelism;
+        private final CompletableFuture<TopItemsResponse<T>> result = new CompletableFuture<>();
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+        private TopItemsResponse<T> first;
+        private List<T> firstItems;
+        private List<List<T>> pages;
+        private int total;
+        private int nextPage;
+        private int completedPages;
+        
+        PageCollector(AsyncPageFetcher<T> fetcher, int maxItems, int parallelism) {
+            this.fetcher = fetcher;
+            this.maxItems = maxItems;
+            this.parallelism = Math.max(1, parallelism);
+        }
+        
+        CompletableFuture<TopItemsResponse<T>> start() {
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    inFlight.forEach(page -> page.cancel(true));
+                }
+            });
+            fetch(0, MAX_PAGE_SIZE).whenComplete(this::firstPage);
+            return result;
+        }
+        
+        private synchronized void firstPage(TopItemsResponse<T> page, Throwable error) {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            first = page;
+            firstItems = page.getItems() != null ? page.getItems() : new ArrayList<>();
+            total = Math.min(maxItems, page.getTotal());
+            int remaining = firstItems.isEmpty() ? 0 : Math.max(0, total - firstItems.size());
+            pages = new ArrayList<>(Collections.nCopies((remaining + MAX_PAGE_SIZE - 1) / MAX_PAGE_SIZE, null));
+            if (pages.isEmpty()) {
+                finish();
+                return;
+            }
+            for (int i = 0; i < parallelism && nextPage < pages.size(); i++) {
+                fetchNext();
+            }
+        }
+        
+        private void fetchNext() {
+            int index = nextPage++;
+            int offset = firstItems.size() + index * MAX_PAGE_SIZE;
+            fetch(offset, Math.min(MAX_PAGE_SIZE, total - offset))
+                    .whenComplete((page, error) -> pageDone(index, page, error));
+        }
+        
+        private synchronized void pageDone(int index, TopItemsResponse<T> page, Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            pages.set(index, page.getItems() != null ? page.getItems() : Collections.emptyList());
+            if (++completedPages == pages.size()) {
+                finish();
+            } else if (nextPage < pages.size()) {
+                fetchNext();
+            }
+        }
+        
+        private CompletableFuture<TopItemsResponse<T>> fetch(int offset, int limit) {
+            CompletableFuture<TopItemsResponse<T>> page = fetcher.fetch(offset, limit);
+            inFlight.add(page);
+            page.whenComplete((value, error) -> inFlight.remove(page));
+            if (result.isDone()) {
+                page.cancel(true);
+            }
+            return page;
+        }
+        
+        private void finish() {
+            List<T> items = new ArrayList<>(firstItems);
+            for (List<T> pageItems : pages) {
+                items.addAll(pageItems);
+            }
+            TopItemsResponse<T> response = new TopItemsResponse<>();
+            response.setItems(items.size() > total ? items.subList(0, total) : items);
+            response.setTotal(first.getTotal());
+            response.setLimit(response.getItems().size());
+            result.complete(response);
+        }
     }
     
     /**
-     * Generic method to make HTTP requests to Spotify API
+     * Block on an asynchronous call, rethrowing its failure as the original exception
      */
-    private <T> T makeRequest(String url, String accessToken, Class<T> responseClass) throws IOException {
-        Request request = new Request.Builder()
+    static <T> T await(CompletableFuture<T> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Spotify API");
+        } catch (ExecutionException e) {
+            throw RequestScheduler.unwrap(e.getCause());
+        }
+    }
+    
+    /**
+     * Make a request, sharing one in-flight call between concurrent callers that ask for the
+     * same URL with the same token. Each caller gets its own future and its own copy of the
+     * parsed result; the HTTP call is only aborted once every caller sharing it has cancelled.
+     */
+    private <T> CompletableFuture<T> makeRequestAsync(String url, String accessToken, JavaType responseType) {
+        String key = ValidatorCache.key(url, accessToken);
+        while (true) {
+            SharedCall shared = inFlight.get(key);
+            if (shared == null) {
+                SharedCall created = new SharedCall(responseType);
+                if (inFlight.putIfAbsent(key, created) == null) {
+                    // Subscribe before starting, so a call that completes at once still has its caller
+                    CompletableFuture<T> view = created.subscribe();
+                    created.source.whenComplete((value, error) -> inFlight.remove(key, created));
+                    created.start(executeRequestAsync(url, accessToken, key, responseType));
+                    return view;
+                }
+                continue;
+            }
+            CompletableFuture<T> view = shared.subscribe();
+            if (view != null) {
+                logger.debug("Joining in-flight request for {}", url);
+                metrics.recordCacheHit(RequestScheduler.endpointKey(HttpUrl.get(url)), ApiMetrics.CacheHit.COALESCED);
+                return view;
+            }
+            inFlight.remove(key, shared);
+        }
+    }
+    
+    /**
+     * Make an HTTP request and deserialize the body straight from the response stream.
+     * The payload is never materialized as a String; at most the first
+     * {@code spotify.log.payloadMaxBytes} bytes are peeked when payload logging is enabled.
+     * When validators from an earlier response are known, the request is made conditional and
+     * a {@code 304} binds a fresh copy of the previously parsed object from its snapshot.
+     */
+    private <T> CompletableFuture<T> executeRequestAsync(String url, String accessToken, String validatorKey,
+                                                         JavaType responseType) {
+        Request.Builder requestBuilder = new Request.Builder()
                 .url(url)
                 .addHeader("Authorization", "Bearer " + accessToken)
-                .addHeader("Content-Type", "application/json")
-                .build();
+                .addHeader("Content-Type", "application/json");
+        
+        ValidatorCache.Validated validators = validatorCache != null ? validatorCache.get(validatorKey) : null;
+        if (validators != null) {
+            if (validators.getEtag() != null) {
+                requestBuilder.addHeader("If-None-Match", validators.getEtag());
+            }
+            if (validators.getLastModified() != null) {
+                requestBuilder.addHeader("If-Modified-Since", validators.getLastModified());
+            }
+        }
         
-        try (Response response = httpClient.newCall(request).execute()) {
+        ApiCallEvent event = new ApiCallEvent();
+        event.begin();
+        RequestScheduler.ScheduledCall call = scheduler.executeAsync(requestBuilder.build());
+        CompletableFuture<T> result = call.handle((response, error) -> {
+            if (error != null) {
+                event.complete(call.getEndpoint(), "GET", 0, 0);
+                logFailure(url, call, error);
+                throw new CompletionException(error);
+            }
+            try {
+                return readResponse(url, response, responseType, validatorKey, validators, event);
+            } catch (IOException | RuntimeException e) {
+                logFailure(url, call, e);
+                throw new CompletionException(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Log a failed call; cancellations from hedging, coalescing or callers are expected and stay quiet
+     */
+    private static void logFailure(String url, CompletableFuture<?> call, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (call.isCancelled() || cause instanceof CancellationException) {
+            logger.debug("Request to {} was cancelled", url);
+        } else {
+            logger.error("Error making request to {}: {}", url, cause.getMessage(), cause);
+        }
+    }
+    
+    private <T> T readResponse(String url, Response response, JavaType responseType,
+                               String validatorKey, ValidatorCache.Validated validators,
+                               ApiCallEvent event) throws IOException {
+        String endpoint = RequestScheduler.endpointKey(response.request().url());
+        long bytes = 0;
+        try {
+            if (response.code() == 304 && validators != null) {
+                logger.debug("Not modified, rebinding cached response for {}", url);
+                metrics.recordCacheHit(endpoint, ApiMetrics.CacheHit.NOT_MODIFIED);
+                return copyOf(validators.getSnapshot(), responseType);
+            }
+            
             if (!response.isSuccessful()) {
                 String errorBody = response.body() != null ? response.body().string() : "Unknown error";
+                bytes = errorBody.getBytes(StandardCharsets.UTF_8).length;
                 logger.error("API request failed: {} - {}", response.code(), errorBody);
-                throw new IOException("API request failed: " + response.code() + " - " + errorBody);
+                throw new SpotifyApiException(response.code(), "API request failed: " + response.code() + " - " + errorBody);
             }
             
-            String responseBody = response.body().string();
-            logger.debug("API response for {}: {}", url, responseBody);
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("API request returned an empty body: " + url);
+            }
+            
+            if (payloadLogger.shouldLog()) {
+                payloadLogger.log(url, response);
+            }
+            
+            T value = null;
+            long parseStart = System.nanoTime();
+            DeserializationEvent parse = new DeserializationEvent();
+            parse.begin();
+            ApiMetrics.CountingInputStream input = new ApiMetrics.CountingInputStream(body.byteStream());
+            try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+                value = objectMapper.readValue(parser, responseType);
+            } finally {
+                bytes = input.getBytes();
+                parse.complete(responseType, bytes, value != null);
+            }
+            metrics.recordBody(endpoint, System.nanoTime() - parseStart, bytes);
             
-            return objectMapper.readValue(responseBody, responseClass);
-        } catch (Exception e) {
-            logger.error("Error making request to {}: {}", url, e.getMessage(), e);
-            throw e;
+            if (validatorCache != null) {
+                String etag = response.header("ETag");
+                String lastModified = response.header("Last-Modified");
+                if (etag != null || lastModified != null) {
+                    validatorCache.put(validatorKey, etag, lastModified, snapshot(value));
+                } else {
+                    validatorCache.remove(validatorKey);
+                }
+            }
+            return value;
+        } finally {
+            response.close();
+            event.complete(endpoint, "GET", response.code(), bytes);
+        }
+    }
+    
+    /**
+     * Serialize a parsed response into an immutable token buffer that can be bound again later
+     */
+    TokenBuffer snapshot(Object value) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+        objectMapper.writeValue(buffer, value);
+        return buffer;
+    }
+    
+    /**
+     * Bind a new, independent object from a snapshot
+     */
+    <T> T copyOf(TokenBuffer snapshot, JavaType type) throws IOException {
+        try (JsonParser parser = snapshot.asParser()) {
+            return objectMapper.readValue(parser, type);
         }
     }
     
@@ -134,7 +584,7 @@ public class SpotifyDataService {
         private int total;
         
         @JsonProperty("items")
-        private java.util.List<T> items;
+        private List<T> items;
         
         // Getters and setters
         public String getHref() { return href; }
@@ -149,7 +599,154 @@ public class SpotifyDataService {
         public void setPrevious(String previous) { this.previous = previous; }
         public int getTotal() { return total; }
         public void setTotal(int total) { this.total = total; }
-        public java.util.List<T> getItems() { return items; }
-        public void setItems(java.util.List<T> items) { this.items = items; }
+        public List<T> getItems() { return items; }
+        public void setItems(List<T> items) { this.items = items; }
+    }
+    
+    /**
+     * Response of the several-artists endpoint
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SeveralArtistsResponse {
+        @JsonProperty("artists")
+        private List<Artist> artists;
+        
+        public List<Artist> getArtists() { return artists != null ? artists : new ArrayList<>(); }
+        public void setArtists(List<Artist> artists) { this.artists = artists; }
+    }
+    
+    /**
+     * Response of the several-albums endpoint
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SeveralAlbumsResponse {
+        @JsonProperty("albums")
+        private List<Album> albums;
+        
+        public List<Album> getAlbums() { return albums != null ? albums : new ArrayList<>(); }
+        public void setAlbums(List<Album> albums) { this.albums = albums; }
+    }
+    
+    /**
+     * Response of the several-tracks endpoint
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SeveralTracksResponse {
+        @JsonProperty("tracks")
+        private List<Track> tracks;
+        
+        public List<Track> getTracks() { return tracks != null ? tracks : new ArrayList<>(); }
+        public void setTracks(List<Track> tracks) { this.tracks = tracks; }
+    }
+    
+    /**
+     * One in-flight HTTP call shared by every caller that asked for the same resource.
+     *
+     * The first caller gets the parsed object itself. If others joined, the object is
+     * snapshotted before anyone sees it and every other caller binds its own copy, so callers
+     * can hydrate or modify their result without affecting each other. A completed call takes
+     * no new callers; those start a call of their own.
+     */
+    private class SharedCall {
+        private final JavaType responseType;
+        private final CompletableFuture<Object> source = new CompletableFuture<>();
+        private int subscribers;
+        private int joined;
+        private boolean closed;
+        private TokenBuffer snapshot;
+        
+        SharedCall(JavaType responseType) {
+            this.responseType = responseType;
+        }
+        
+        void start(CompletableFuture<?> call) {
+            call.whenComplete((value, error) -> {
+                if (error != null) {
+                    close();
+                    source.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    return;
+                }
+                try {
+                    if (close() > 1) {
+                        snapshot = snapshot(value);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    source.completeExceptionally(e);
+                    return;
+                }
+                source.complete(value);
+            });
+            source.whenComplete((value, error) -> {
+                if (source.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        }
+        
+        /**
+         * Attach a new caller, or return null if the call has completed or every previous
+         * caller has already cancelled
+         */
+        <T> CompletableFuture<T> subscribe() {
+            int index;
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                subscribers++;
+                index = joined++;
+            }
+            
+            CompletableFuture<T> view = new CompletableFuture<T>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled && unsubscribe()) {
+                        source.cancel(true);
+                    }
+                    return cancelled;
+                }
+            };
+            source.whenComplete((value, error) -> {
+                if (error != null) {
+                    view.completeExceptionally(error);
+                    return;
+                }
+                try {
+                    view.complete(index == 0 ? cast(value) : copyOf(snapshot, responseType));
+                } catch (IOException | RuntimeException e) {
+                    view.completeExceptionally(e);
+                }
+            });
+            return view;
+        }
+        
+        /**
+         * Stop taking callers, returning how many joined in total
+         */
+        private synchronized int close() {
+            closed = true;
+            return joined;
+        }
+        
+        /**
+         * Detach a cancelled caller, returning true if it was the last one and the call should stop
+         */
+        private synchronized boolean unsubscribe() {
+            if (closed) {
+                return false;
+            }
+            if (--subscribers == 0) {
+                closed = true;
+                return true;
+            }
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private <T> T cast(Object value) {
+            return (T) value;
+        }
     }
 }
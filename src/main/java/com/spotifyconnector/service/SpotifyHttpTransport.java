@@ -0,0 +1,200 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared HTTP transport used by every Spotify service.
+ *
+ * One connection pool and one dispatcher are shared so that the accounts and API hosts
+ * are only handshaked once per process and HTTP/2 connections are multiplexed.
+ */
+public class SpotifyHttpTransport {
+    private static final Logger logger = LoggerFactory.getLogger(SpotifyHttpTransport.class);
+    
+    private static SpotifyHttpTransport instance;
+    
+    private final OkHttpClient httpClient;
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsFailed = new LongAdder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder http2Connections = new LongAdder();
+    private final LongAdder connectionsAcquired = new LongAdder();
+    private final LongAdder callsStarted = new LongAdder();
+    
+    private SpotifyHttpTransport(SpotifyConfig config) {
+        int maxIdleConnections = config.getIntProperty("spotify.http.pool.maxIdle", 10);
+        long keepAliveSeconds = config.getLongProperty("spotify.http.pool.keepAliveSeconds", 300);
+        long timeoutSeconds = config.getLongProperty("spotify.http.timeoutSeconds", 30);
+        
+        this.connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+        
+        this.dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getIntProperty("spotify.http.maxRequests", 64));
+        dispatcher.setMaxRequestsPerHost(config.getIntProperty("spotify.http.maxRequestsPerHost", 16));
+        
+        this.httpClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                // HTTP/2 is negotiated through ALPN; HTTP/1.1 remains as the fallback
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .eventListener(new StatsListener())
+                .connectTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .build();
+        
+        logger.info("HTTP transport initialized (maxIdle={}, keepAlive={}s, maxRequests={}, maxRequestsPerHost={})",
+                maxIdleConnections, keepAliveSeconds, dispatcher.getMaxRequests(), dispatcher.getMaxRequestsPerHost());
+    }
+    
+    public static synchronized SpotifyHttpTransport getInstance() {
+        if (instance == null) {
+            instance = new SpotifyHttpTransport(SpotifyConfig.getInstance());
+        }
+        return instance;
+    }
+    
+    /**
+     * Get the shared client. Derive per-call variants with {@code newBuilder()} so the pool is kept.
+     */
+    public OkHttpClient getClient() {
+        return httpClient;
+    }
+    
+    /**
+     * Get a snapshot of the connection statistics
+     */
+    public ConnectionStats getStats() {
+        return new ConnectionStats(
+                connectionPool.connectionCount(),
+                connectionPool.idleConnectionCount(),
+                dispatcher.runningCallsCount(),
+                dispatcher.queuedCallsCount(),
+                callsStarted.sum(),
+                connectionsAcquired.sum(),
+                connectionsOpened.sum(),
+                connectionsFailed.sum(),
+                tlsHandshakes.sum(),
+                http2Connections.sum());
+    }
+    
+    /**
+     * Close idle connections and stop the dispatcher threads
+     */
+    public void shutdown() {
+        dispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+        logger.info("HTTP transport shut down: {}", getStats());
+    }
+    
+    /**
+     * Counts connection lifecycle events for the shared client
+     */
+    private class StatsListener extends EventListener {
+        @Override
+        public void callStart(Call call) {
+            callsStarted.increment();
+        }
+        
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsHandshakes.increment();
+        }
+        
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            connectionsOpened.increment();
+            if (protocol == Protocol.HTTP_2) {
+                http2Connections.increment();
+            }
+        }
+        
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connectionsFailed.increment();
+        }
+        
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.increment();
+        }
+    }
+    
+    /**
+     * Point-in-time view of the transport's connection usage
+     */
+    public static class ConnectionStats {
+        private final int pooledConnections;
+        private final int idleConnections;
+        private final int runningCalls;
+        private final int queuedCalls;
+        private final long callsStarted;
+        private final long connectionsAcquired;
+        private final long connectionsOpened;
+        private final long connectionsFailed;
+        private final long tlsHandshakes;
+        private final long http2Connections;
+        
+        public ConnectionStats(int pooledConnections, int idleConnections, int runningCalls, int queuedCalls,
+                               long callsStarted, long connectionsAcquired, long connectionsOpened,
+                               long connectionsFailed, long tlsHandshakes, long http2Connections) {
+            this.pooledConnections = pooledConnections;
+            this.idleConnections = idleConnections;
+            this.runningCalls = runningCalls;
+            this.queuedCalls = queuedCalls;
+            this.callsStarted = callsStarted;
+            this.connectionsAcquired = connectionsAcquired;
+            this.connectionsOpened = connectionsOpened;
+            this.connectionsFailed = connectionsFailed;
+            this.tlsHandshakes = tlsHandshakes;
+            this.http2Connections = http2Connections;
+        }
+        
+        public int getPooledConnections() { return pooledConnections; }
+        public int getIdleConnections() { return idleConnections; }
+        public int getRunningCalls() { return runningCalls; }
+        public int getQueuedCalls() { return queuedCalls; }
+        public long getCallsStarted() { return callsStarted; }
+        public long getConnectionsAcquired() { return connectionsAcquired; }
+        public long getConnectionsOpened() { return connectionsOpened; }
+        public long getConnectionsFailed() { return connectionsFailed; }
+        public long getTlsHandshakes() { return tlsHandshakes; }
+        public long getHttp2Connections() { return http2Connections; }
+        
+        /**
+         * Number of connection acquisitions that were served by an already open connection
+         */
+        public long getConnectionsReused() {
+            return Math.max(0, connectionsAcquired - connectionsOpened);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("ConnectionStats{pooled=%d, idle=%d, running=%d, queued=%d, calls=%d, " +
+                            "opened=%d, reused=%d, failed=%d, handshakes=%d, http2=%d}",
+                    pooledConnections, idleConnections, runningCalls, queuedCalls, callsStarted,
+                    connectionsOpened, getConnectionsReused(), connectionsFailed, tlsHandshakes, http2Connections);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.spotifyconnector.service;
+
+/**
+ * Token bucket that hands out reservations instead of blocking.
+ *
+ * Callers reserve a permit and receive how long they must wait before using it, which lets
+ * both blocking and scheduled callers share the same bucket. Tokens may go negative while
+ * reservations are outstanding, so waiting callers are served in arrival order.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double refillPerNano;
+    
+    private double tokens;
+    private long lastRefillNanos;
+    
+    public TokenBucket(double capacity, double refillPerSecond) {
+        if (capacity <= 0 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and refill rate must be positive");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+    
+    /**
+     * Reserve permits and return the number of nanoseconds to wait before using them
+     */
+    public synchronized long reserve(double permits) {
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens / refillPerNano);
+    }
+    
+    /**
+     * Take permits only if they are available right now
+     */
+    public synchronized boolean tryAcquire(double permits) {
+        refill();
+        if (tokens >= permits) {
+            tokens -= permits;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Get the currently available tokens (negative while reservations are queued)
+     */
+    public synchronized double getAvailableTokens() {
+        refill();
+        return tokens;
+    }
+    
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+    }
+}
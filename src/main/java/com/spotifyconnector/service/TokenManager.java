@@ -0,0 +1,180 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.TokenSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one account's token set current for the lifetime of the process.
+ *
+ * The current token is read lock-free from an atomic reference. A refresh is scheduled
+ * {@code spotify.token.refreshMarginSeconds} before expiry, so callers normally never see an
+ * expired token; if one does (e.g. after a 401), concurrent refresh requests are coalesced
+ * into a single call to the token endpoint.
+ */
+public class TokenManager {
+    private static final Logger logger = LoggerFactory.getLogger(TokenManager.class);
+    
+    private static final ScheduledExecutorService refreshTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spotify-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final SpotifyAuthService authService;
+    private final AtomicReference<TokenSet> current;
+    private final AtomicReference<CompletableFuture<TokenSet>> refreshing = new AtomicReference<>();
+    private final long marginMillis;
+    private final long retryMillis;
+    private volatile Consumer<TokenSet> onRefresh;
+    private volatile ScheduledFuture<?> scheduledRefresh;
+    private volatile boolean closed;
+    
+    public TokenManager(SpotifyAuthService authService, TokenSet tokens) {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        this.authService = authService;
+        this.current = new AtomicReference<>(tokens);
+        this.marginMillis = TimeUnit.SECONDS.toMillis(config.getLongProperty("spotify.token.refreshMarginSeconds", 300));
+        this.retryMillis = TimeUnit.SECONDS.toMillis(config.getLongProperty("spotify.token.retrySeconds", 30));
+        scheduleRefresh(tokens);
+    }
+    
+    /**
+     * Call the listener with every refreshed token set, e.g. to persist a rotated refresh token
+     */
+    public void setOnRefresh(Consumer<TokenSet> onRefresh) {
+        this.onRefresh = onRefresh;
+    }
+    
+    /**
+     * Get a valid access token, refreshing first only if the current one has already expired
+     */
+    public String getAccessToken() throws IOException {
+        TokenSet tokens = current.get();
+        if (!tokens.isExpired(0)) {
+            return tokens.getAccessToken();
+        }
+        return SpotifyDataService.await(refresh()).getAccessToken();
+    }
+    
+    /**
+     * Get the current token set without refreshing
+     */
+    public TokenSet getTokens() {
+        return current.get();
+    }
+    
+    /**
+     * Refresh now, joining a refresh that is already in flight
+     */
+    public CompletableFuture<TokenSet> refresh() {
+        while (true) {
+            CompletableFuture<TokenSet> inFlight = refreshing.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            CompletableFuture<TokenSet> created = new CompletableFuture<>();
+            if (refreshing.compareAndSet(null, created)) {
+                startRefresh(created);
+                return created;
+            }
+        }
+    }
+    
+    /**
+     * Refresh after the API rejected the given access token, unless a newer token is already in place
+     */
+    public CompletableFuture<TokenSet> onUnauthorized(String rejectedAccessToken) {
+        TokenSet tokens = current.get();
+        if (tokens.getAccessToken() != null && !tokens.getAccessToken().equals(rejectedAccessToken)) {
+            return CompletableFuture.completedFuture(tokens);
+        }
+        return refresh();
+    }
+    
+    /**
+     * Get a valid access token after the API rejected the given one, blocking until refreshed
+     */
+    public String getAccessTokenAfterRejection(String rejectedAccessToken) throws IOException {
+        return SpotifyDataService.await(onUnauthorized(rejectedAccessToken)).getAccessToken();
+    }
+    
+    /**
+     * Stop proactive refreshes
+     */
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> task = scheduledRefresh;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+    
+    private void startRefresh(CompletableFuture<TokenSet> result) {
+        String refreshToken = current.get().getRefreshToken();
+        if (refreshToken == null) {
+            refreshing.set(null);
+            result.completeExceptionally(new IllegalStateException("No refresh token available"));
+            return;
+        }
+        authService.refreshTokensAsync(refreshToken).whenComplete((tokens, error) -> {
+            if (error != null) {
+                refreshing.set(null);
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                logger.warn("Token refresh failed: {}", cause.getMessage());
+                if (!isRejected(cause)) {
+                    scheduleRetry();
+                }
+                result.completeExceptionally(cause);
+                return;
+            }
+            current.set(tokens);
+            refreshing.set(null);
+            logger.debug("Refreshed access token, expires at {}", tokens.getExpiresAtMillis());
+            scheduleRefresh(tokens);
+            Consumer<TokenSet> listener = onRefresh;
+            if (listener != null) {
+                try {
+                    listener.accept(tokens);
+                } catch (RuntimeException e) {
+                    logger.warn("Token refresh listener failed: {}", e.getMessage());
+                }
+            }
+            result.complete(tokens);
+        });
+    }
+    
+    /**
+     * A revoked or invalid refresh token will not start working by retrying
+     */
+    private static boolean isRejected(Throwable cause) {
+        return cause instanceof SpotifyApiException
+                && ((SpotifyApiException) cause).getStatusCode() >= 400
+                && ((SpotifyApiException) cause).getStatusCode() < 500
+                && !((SpotifyApiException) cause).isRateLimited();
+    }
+    
+    private void scheduleRefresh(TokenSet tokens) {
+        if (closed || tokens.getRefreshToken() == null) {
+            return;
+        }
+        long delay = Math.max(0, tokens.getExpiresAtMillis() - marginMillis - System.currentTimeMillis());
+        scheduledRefresh = refreshTimer.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private void scheduleRetry() {
+        if (!closed) {
+            scheduledRefresh = refreshTimer.schedule(this::refresh, retryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.spotifyconnector.service;
+
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers HTTP validators ({@code ETag} / {@code Last-Modified}) and a snapshot of the object
+ * parsed from the matching response, per URL and access token, so a {@code 304 Not Modified}
+ * can be answered without downloading the body again. Keys hold a SHA-256 digest of the
+ * token, never the bearer token itself.
+ *
+ * The snapshot is the parsed object serialized into a {@link TokenBuffer}. It never changes,
+ * and every 304 binds a new object from it, so callers can modify what they get.
+ *
+ * Entries are evicted least-recently-used once the configured size is reached.
+ */
+public class ValidatorCache {
+    private final Map<String, Validated> entries;
+    
+    public ValidatorCache(int maxEntries) {
+        this.entries = new LinkedHashMap<String, Validated>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validated> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+    
+    public static String key(String url, String accessToken) {
+        return digest(accessToken) + " " + url;
+    }
+    
+    /**
+     * Hex SHA-256 digest of an access token, for use in keys
+     */
+    static String digest(String accessToken) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+    
+    public synchronized Validated get(String key) {
+        return entries.get(key);
+    }
+    
+    public synchronized void put(String key, String etag, String lastModified, TokenBuffer snapshot) {
+        entries.put(key, new Validated(etag, lastModified, snapshot));
+    }
+    
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Validators and parsed-value snapshot of a previous successful response
+     */
+    public static class Validated {
+        private final String etag;
+        private final String lastModified;
+        private final TokenBuffer snapshot;
+        
+        Validated(String etag, String lastModified, TokenBuffer snapshot) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.snapshot = snapshot;
+        }
+        
+        public String getEtag() { return etag; }
+        public String getLastModified() { return lastModified; }
+        public TokenBuffer getSnapshot() { return snapshot; }
+    }
+}
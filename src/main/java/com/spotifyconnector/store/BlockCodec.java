@@ -0,0 +1,41 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes a block of plays for a {@link SegmentedPlayHistoryStore} segment. The codec id is
+ * written into every block header, so segments written with different codecs can be mixed.
+ */
+public interface BlockCodec {
+    
+    /**
+     * Identifier stored in the block header; must be unique among codecs
+     */
+    byte getId();
+    
+    byte[] encode(List<PlayHistoryItem> items) throws IOException;
+    
+    /**
+     * Decode a block written by {@link #encode}; {@code count} is the number of plays it holds
+     */
+    List<PlayHistoryItem> decode(byte[] data, int count) throws IOException;
+    
+    /**
+     * Decode only the plays with {@code from <= played_at <= to}; codecs that can read the
+     * timestamps on their own override this to skip building the other plays
+     */
+    default List<PlayHistoryItem> decodeRange(byte[] data, int count, long fromMillis, long toMillis) throws IOException {
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        for (PlayHistoryItem item : decode(data, count)) {
+            long playedAt = item.getPlayedAtMillis();
+            if (playedAt >= fromMillis && playedAt <= toMillis) {
+                plays.add(item);
+            }
+        }
+        return plays;
+    }
+}
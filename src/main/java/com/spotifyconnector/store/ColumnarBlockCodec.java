@@ -0,0 +1,128 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a block as three columns of small integers; track, album, artist and context
+ * metadata lives in the {@link EntityDictionary}.
+ *
+ * Layout: {@code played_at} as zigzag varint deltas from the previous play (the first from
+ * zero), then one varint per play for the track id and for the context id, each offset by
+ * one so that zero means "none". A play typically takes under ten bytes instead of several KB of
+ * JSON. Columns decode into primitive arrays, so a range query only materializes the plays
+ * whose timestamps fall inside the range.
+ */
+class ColumnarBlockCodec implements BlockCodec {
+    static final byte ID = 2;
+    
+    private static final DateTimeFormatter PLAYED_AT_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    
+    private final EntityDictionary dictionary;
+    
+    ColumnarBlockCodec(EntityDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+    
+    @Override
+    public byte getId() {
+        return ID;
+    }
+    
+    @Override
+    public byte[] encode(List<PlayHistoryItem> items) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(items.size() * 6);
+        long previous = 0;
+        for (PlayHistoryItem item : items) {
+            long playedAt = item.getPlayedAtMillis();
+            VarInts.writeSigned(out, playedAt - previous);
+            previous = playedAt;
+        }
+        for (PlayHistoryItem item : items) {
+            VarInts.writeUnsigned(out, item.getTrack() != null ? dictionary.trackId(item.getTrack()) + 1 : 0);
+        }
+        for (PlayHistoryItem item : items) {
+            VarInts.writeUnsigned(out, item.getContext() != null ? dictionary.contextId(item.getContext()) + 1 : 0);
+        }
+        // New metadata must be on disk before any block that refers to it
+        dictionary.flush();
+        return out.toByteArray();
+    }
+    
+    @Override
+    public List<PlayHistoryItem> decode(byte[] data, int count) throws IOException {
+        return decodeRange(data, count, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    @Override
+    public List<PlayHistoryItem> decodeRange(byte[] data, int count, long fromMillis, long toMillis) throws IOException {
+        Columns columns = decodeColumns(data, count);
+        List<PlayHistoryItem> plays = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long playedAt = columns.playedAt[i];
+            if (playedAt < fromMillis || playedAt > toMillis) {
+                continue;
+            }
+            int track = columns.tracks[i];
+            int context = columns.contexts[i];
+            plays.add(new PlayHistoryItem(track >= 0 ? dictionary.track(track) : null,
+                    formatPlayedAt(playedAt),
+                    context >= 0 ? dictionary.context(context) : null));
+        }
+        return plays;
+    }
+    
+    /**
+     * Format a timestamp the way the API reports {@code played_at}
+     */
+    static String formatPlayedAt(long playedAtMillis) {
+        return PLAYED_AT_FORMAT.format(Instant.ofEpochMilli(playedAtMillis));
+    }
+    
+    /**
+     * Decode the columns of a block without touching the dictionary; ids of absent tracks or
+     * contexts are -1
+     */
+    Columns decodeColumns(byte[] data, int count) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        long[] playedAt = new long[count];
+        int[] tracks = new int[count];
+        int[] contexts = new int[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += VarInts.readSigned(in);
+            playedAt[i] = previous;
+        }
+        for (int i = 0; i < count; i++) {
+            tracks[i] = VarInts.readUnsignedInt(in) - 1;
+        }
+        for (int i = 0; i < count; i++) {
+            contexts[i] = VarInts.readUnsignedInt(in) - 1;
+        }
+        return new Columns(playedAt, tracks, contexts);
+    }
+    
+    /**
+     * The decoded columns of one block, row i being the i-th play
+     */
+    static final class Columns {
+        final long[] playedAt;
+        final int[] tracks;
+        final int[] contexts;
+        
+        Columns(long[] playedAt, int[] tracks, int[] contexts) {
+            this.playedAt = playedAt;
+            this.tracks = tracks;
+            this.contexts = contexts;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.spotifyconnector.store;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Context;
+import com.spotifyconnector.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Catalog metadata referenced by {@link ColumnarBlockCodec} blocks. Every track, album, artist
+ * and context is written once to an append-only file and referred to by an int id, assigned
+ * per kind in file order.
+ *
+ * A track entry holds the ids of its album and artists, so a track's metadata is stored once
+ * however often it is played. Only keys, file offsets and track references are kept in memory:
+ * entries are read from the file on first use, and the most recently used ones are kept as
+ * token snapshots, up to a fixed number. Every lookup binds a new copy from the snapshot, so
+ * callers may modify what they get. The dictionary also keeps, per album and per artist, the
+ * list of its track ids.
+ * New entries are buffered and written by {@link #flush()}, which the codec calls
+ * before the block that refers to them is written. The flush always forces the file to disk,
+ * even when blocks are not forced: a block that survives a crash must never refer to an
+ * entry that did not. New entries are rare once the library is known, so this costs little.
+ *
+ * Record layout: kind (1 byte), payload length (int), CRC32 of the payload (int), payload.
+ */
+class EntityDictionary implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(EntityDictionary.class);
+    
+    private static final int RECORD_HEADER_BYTES = 9;
+    private static final String LOCAL_PREFIX = "name:";
+    private static final int DEFAULT_CACHED_ENTRIES = 2048;
+    
+    enum Kind { TRACK, ALBUM, ARTIST, CONTEXT }
+    
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper;
+    private final Table[] tables = new Table[Kind.values().length];
+    private final List<int[]> trackRefs = new ArrayList<>();
+    private final List<IntList> tracksByAlbum = new ArrayList<>();
+    private final List<IntList> tracksByArtist = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final Map<Long, TokenBuffer> snapshots;
+    private long written;
+    
+    EntityDictionary(Path file) throws IOException {
+        this(file, DEFAULT_CACHED_ENTRIES);
+    }
+    
+    /**
+     * Open a dictionary that keeps at most {@code cachedEntries} decoded entries in memory
+     */
+    EntityDictionary(Path file, int cachedEntries) throws IOException {
+        this.snapshots = new LinkedHashMap<Long, TokenBuffer>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TokenBuffer> eldest) {
+                return size() > cachedEntries;
+            }
+        };
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        for (Kind kind : Kind.values()) {
+            tables[kind.ordinal()] = new Table();
+        }
+        load();
+        this.written = channel.size();
+    }
+    
+    /**
+     * Id of the track, adding it together with its album and artists if it is new
+     */
+    synchronized int trackId(Track track) throws IOException {
+        String key = key(track.getId(), track.getName());
+        Integer existing = table(Kind.TRACK).ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int album = track.getAlbum() != null ? add(Kind.ALBUM, key(track.getAlbum().getId(), track.getAlbum().getName()),
+                objectMapper.writeValueAsBytes(track.getAlbum())) : -1;
+        List<Artist> artists = track.getArtists() != null ? track.getArtists() : List.of();
+        int[] refs = new int[artists.size() + 1];
+        refs[0] = album;
+        for (int i = 0; i < artists.size(); i++) {
+            Artist artist = artists.get(i);
+            refs[i + 1] = add(Kind.ARTIST, key(artist.getId(), artist.getName()), objectMapper.writeValueAsBytes(artist));
+        }
+        
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(payload, album + 1);
+        VarInts.writeUnsigned(payload, artists.size());
+        for (int i = 1; i < refs.length; i++) {
+            VarInts.writeUnsigned(payload, refs[i]);
+        }
+        ObjectNode node = objectMapper.valueToTree(track);
+        node.remove(Arrays.asList("album", "artists", "played_at"));
+        payload.write(objectMapper.writeValueAsBytes(node));
+        int id = add(Kind.TRACK, key, payload.toByteArray());
+        addTrackRefs(id, refs);
+        return id;
+    }
+    
+    synchronized int contextId(Context context) throws IOException {
+        return add(Kind.CONTEXT, key(context), objectMapper.writeValueAsBytes(context));
+    }
+    
+    synchronized Track track(int id) throws IOException {
+        checkId(Kind.TRACK, id);
+        TokenBuffer snapshot = snapshots.get(snapshotKey(Kind.TRACK, id));
+        if (snapshot == null) {
+            int[] refs = trackRefs.get(id);
+            ByteBuffer payload = ByteBuffer.wrap(payload(Kind.TRACK, id));
+            VarInts.readUnsigned(payload);
+            int artistCount = VarInts.readUnsignedInt(payload);
+            for (int i = 0; i < artistCount; i++) {
+                VarInts.readUnsigned(payload);
+            }
+            Track track = objectMapper.readValue(payload.array(), payload.position(), payload.remaining(), Track.class);
+            track.setAlbum(refs[0] >= 0 ? entity(Kind.ALBUM, refs[0], Album.class) : null);
+            List<Artist> artists = new ArrayList<>(refs.length - 1);
+            for (int i = 1; i < refs.length; i++) {
+                artists.add(entity(Kind.ARTIST, refs[i], Artist.class));
+            }
+            track.setArtists(artists);
+            snapshot = snapshot(track);
+            snapshots.put(snapshotKey(Kind.TRACK, id), snapshot);
+        }
+        return copyOf(snapshot, Track.class);
+    }
+    
+    synchronized Context context(int id) throws IOException {
+        return entity(Kind.CONTEXT, id, Context.class);
+    }
+    
+    /**
+     * Album id of a track, or -1 if it has none
+     */
+    synchronized int albumOf(int trackId) {
+        return trackRefs.get(trackId)[0];
+    }
+    
+    synchronized int[] artistsOf(int trackId) {
+        int[] refs = trackRefs.get(trackId);
+        return Arrays.copyOfRange(refs, 1, refs.length);
+    }
+    
+    /**
+     * Ids of the tracks on an album; the album side of the track, album and artist indexes
+     */
+    synchronized int[] tracksOfAlbum(int albumId) {
+        return albumId < tracksByAlbum.size() && tracksByAlbum.get(albumId) != null
+                ? tracksByAlbum.get(albumId).toArray() : new int[0];
+    }
+    
+    synchronized int[] tracksOfArtist(int artistId) {
+        return artistId < tracksByArtist.size() && tracksByArtist.get(artistId) != null
+                ? tracksByArtist.get(artistId).toArray() : new int[0];
+    }
+    
+    /**
+     * Dictionary id of a catalog id, or -1 if it was never stored
+     */
+    synchronized int lookup(Kind kind, String key) {
+        Integer id = table(kind).ids.get(key);
+        return id != null ? id : -1;
+    }
+    
+    /**
+     * Catalog id (e.g. the Spotify track id) behind a dictionary id
+     */
+    synchronized String key(Kind kind, int id) {
+        return table(kind).keys.get(id);
+    }
+    
+    /**
+     * Spotify id of a track, or null for a local file, which has none
+     */
+    synchronized String catalogId(int trackId) {
+        String key = table(Kind.TRACK).keys.get(trackId);
+        return key.startsWith(LOCAL_PREFIX) ? null : key;
+    }
+    
+    synchronized int size(Kind kind) {
+        return table(kind).keys.size();
+    }
+    
+    /**
+     * Write buffered entries, so blocks referring to them can be written after
+     */
+    synchronized void flush() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        pending.reset();
+        written = position;
+        channel.force(false);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+    
+    private int add(Kind kind, String key, byte[] payload) {
+        Table table = table(kind);
+        Integer existing = table.ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int id = table.add(key, written + pending.size() + RECORD_HEADER_BYTES, payload.length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES)
+                .put((byte) kind.ordinal())
+                .putInt(payload.length)
+                .putInt((int) crc.getValue());
+        pending.write(header.array(), 0, RECORD_HEADER_BYTES);
+        pending.write(payload, 0, payload.length);
+        return id;
+    }
+    
+    private <T> T entity(Kind kind, int id, Class<T> type) throws IOException {
+        checkId(kind, id);
+        TokenBuffer snapshot = snapshots.get(snapshotKey(kind, id));
+        if (snapshot == null) {
+            snapshot = snapshot(objectMapper.readValue(payload(kind, id), type));
+            snapshots.put(snapshotKey(kind, id), snapshot);
+        }
+        return copyOf(snapshot, type);
+    }
+    
+    /**
+     * Read an entry's payload from the file, writing buffered entries first if it is one of them
+     */
+    private byte[] payload(Kind kind, int id) throws IOException {
+        Table table = table(kind);
+        long position = table.positions[id];
+        if (position >= written) {
+            flush();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(table.lengths[id]);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of play dictionary at offset " + position);
+            }
+        }
+        return buffer.array();
+    }
+    
+    private static long snapshotKey(Kind kind, int id) {
+        return (long) kind.ordinal() << 32 | id;
+    }
+    
+    private TokenBuffer snapshot(Object value) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+        objectMapper.writeValue(buffer, value);
+        return buffer;
+    }
+    
+    /**
+     * Bind a new, independent object from a snapshot
+     */
+    private <T> T copyOf(TokenBuffer snapshot, Class<T> type) throws IOException {
+        try (JsonParser parser = snapshot.asParser()) {
+            return objectMapper.readValue(parser, type);
+        }
+    }
+    
+    /**
+     * Read every record, cutting off a torn or corrupt tail left by a crash
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (position < size) {
+            byte[] payload = null;
+            int kind = -1;
+            if (position + RECORD_HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                kind = header.get();
+                int length = header.getInt();
+                int crc = header.getInt();
+                if (kind >= 0 && kind < tables.length && length >= 0 && position + RECORD_HEADER_BYTES + length <= size) {
+                    ByteBuffer buffer = ByteBuffer.allocate(length);
+                    channel.read(buffer, position + RECORD_HEADER_BYTES);
+                    CRC32 actual = new CRC32();
+                    actual.update(buffer.array());
+                    payload = (int) actual.getValue() == crc && !buffer.hasRemaining() ? buffer.array() : null;
+                }
+            }
+            if (payload == null) {
+                logger.warn("Truncating play dictionary at offset {}: incomplete or corrupt record", position);
+                channel.truncate(position);
+                break;
+            }
+            restore(Kind.values()[kind], payload, position + RECORD_HEADER_BYTES);
+            position += RECORD_HEADER_BYTES + payload.length;
+        }
+    }
+    
+    private void restore(Kind kind, byte[] payload, long position) throws IOException {
+        if (kind == Kind.TRACK) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            int album = VarInts.readUnsignedInt(buffer) - 1;
+            int[] refs = new int[VarInts.readUnsignedInt(buffer) + 1];
+            refs[0] = album;
+            for (int i = 1; i < refs.length; i++) {
+                refs[i] = VarInts.readUnsignedInt(buffer);
+            }
+            Track track = objectMapper.readValue(payload, buffer.position(), buffer.remaining(), Track.class);
+            addTrackRefs(table(kind).add(key(track.getId(), track.getName()), position, payload.length), refs);
+        } else if (kind == Kind.CONTEXT) {
+            Context context = objectMapper.readValue(payload, Context.class);
+            table(kind).add(key(context), position, payload.length);
+        } else {
+            ObjectNode node = (ObjectNode) objectMapper.readTree(payload);
+            table(kind).add(key(node.path("id").textValue(), node.path("name").textValue()), position, payload.length);
+        }
+    }
+    
+    private void addTrackRefs(int trackId, int[] refs) {
+        trackRefs.add(refs);
+        if (refs[0] >= 0) {
+            postingFor(tracksByAlbum, refs[0]).add(trackId);
+        }
+        for (int i = 1; i < refs.length; i++) {
+            postingFor(tracksByArtist, refs[i]).add(trackId);
+        }
+    }
+    
+    private static IntList postingFor(List<IntList> postings, int id) {
+        while (postings.size() <= id) {
+            postings.add(null);
+        }
+        IntList posting = postings.get(id);
+        if (posting == null) {
+            posting = new IntList();
+            postings.set(id, posting);
+        }
+        return posting;
+    }
+    
+    private void checkId(Kind kind, int id) throws IOException {
+        if (id < 0 || id >= table(kind).keys.size()) {
+            throw new IOException("Unknown " + kind.name().toLowerCase() + " id " + id + " in play dictionary");
+        }
+    }
+    
+    private Table table(Kind kind) {
+        return tables[kind.ordinal()];
+    }
+    
+    /**
+     * Local files have no catalog id; they are told apart by name
+     */
+    private static String key(String id, String name) {
+        return id != null ? id : LOCAL_PREFIX + name;
+    }
+    
+    private static String key(Context context) {
+        return context.getUri() != null ? context.getUri() : context.getType() + ":" + context.getHref();
+    }
+    
+    /**
+     * Growable list of track ids
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+    
+    /**
+     * The entries of one kind, indexed by id: keys, and where each payload is in the file
+     */
+    private static final class Table {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> keys = new ArrayList<>();
+        long[] positions = new long[16];
+        int[] lengths = new int[16];
+        
+        int add(String key, long position, int length) {
+            int id = keys.size();
+            if (id == positions.length) {
+                positions = Arrays.copyOf(positions, id * 2);
+                lengths = Arrays.copyOf(lengths, id * 2);
+            }
+            ids.put(key, id);
+            keys.add(key);
+            positions[id] = position;
+            lengths[id] = length;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.spotifyconnector.store;
+
+/**
+ * Catalog entities that stored plays can be looked up by
+ */
+public enum EntityKind {
+    TRACK,
+    ALBUM,
+    ARTIST
+}
@@ -0,0 +1,282 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.PlayHistoryItem;
+import com.spotifyconnector.service.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background compaction and retention for a {@link SegmentedPlayHistoryStore}.
+ *
+ * Every {@code spotify.store.compactionIntervalMinutes} each user's log is checked, and it is
+ * rewritten if it holds expired plays, out-of-order blocks or enough underfilled blocks (one
+ * per sync page). The rewrite streams the blocks through a k-way merge on play time, drops
+ * duplicates and plays older than the retention period, and writes full blocks in time order,
+ * with a fresh index, to a sibling directory. A block is decoded only once the merge reaches
+ * its earliest play, so a log in time order is compacted holding about one block in memory.
+ * Only the final swap holds the log, so syncs and queries carry on meanwhile.
+ *
+ * All bytes read and written are charged to a token bucket of
+ * {@code spotify.store.compactionBytesPerSecond}, so compaction trickles along beside
+ * foreground I/O instead of competing with it. Retention is {@code spotify.store.retentionDays}
+ * (0 keeps everything), overridable per user with {@code spotify.store.retentionDays.<userId>}.
+ */
+class HistoryCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryCompactor.class);
+    
+    private static final long STOP_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    private final SegmentedPlayHistoryStore store;
+    private final TokenBucket bandwidth;
+    private final long intervalMinutes;
+    private final int minUnderfilledBlocks;
+    private final ScheduledExecutorService executor;
+    private volatile boolean stopped;
+    
+    HistoryCompactor(SegmentedPlayHistoryStore store) {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        long bytesPerSecond = Math.max(1, config.getLongProperty("spotify.store.compactionBytesPerSecond", 4L * 1024 * 1024));
+        this.store = store;
+        this.bandwidth = new TokenBucket(bytesPerSecond, bytesPerSecond);
+        this.intervalMinutes = Math.max(1, config.getLongProperty("spotify.store.compactionIntervalMinutes", 60));
+        this.minUnderfilledBlocks = Math.max(1, config.getIntProperty("spotify.store.compactAfterBlocks", 16));
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spotify-history-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+    
+    void start() {
+        executor.scheduleWithFixedDelay(this::runSafely, 1, intervalMinutes * 60, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stop after the block being read or written, waiting for the compactor to finish. The
+     * thread is never interrupted: that would close the file channels it shares with the store.
+     */
+    void stop() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("History compactor did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Check every log once, returning how many were compacted
+     */
+    int runOnce() throws IOException {
+        int compacted = 0;
+        for (String name : store.logNames()) {
+            if (stopped) {
+                break;
+            }
+            try {
+                if (compact(name)) {
+                    compacted++;
+                }
+            } catch (InterruptedIOException e) {
+                break;
+            } catch (IOException e) {
+                logger.warn("Could not compact play log {}: {}", name, e.getMessage());
+            }
+        }
+        return compacted;
+    }
+    
+    private void runSafely() {
+        try {
+            int compacted = runOnce();
+            if (compacted > 0) {
+                logger.info("Compacted {} play logs", compacted);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("History compaction failed: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Compact one log, closing it afterwards if it was not open before
+     */
+    private boolean compact(String name) throws IOException {
+        boolean wasOpen = store.isOpen(name);
+        PlayLog log = store.acquire(name);
+        try {
+            return compact(name, log);
+        } finally {
+            store.release(name, !wasOpen);
+        }
+    }
+    
+    private boolean compact(String name, PlayLog log) throws IOException {
+        long cutoff = retentionCutoff(name);
+        List<PlayLog.BlockRef> blocks;
+        long bytesBefore;
+        long playsBefore;
+        synchronized (log) {
+            if (!log.needsCompaction(cutoff, minUnderfilledBlocks)) {
+                return false;
+            }
+            blocks = log.blocks();
+            bytesBefore = log.sizeBytes();
+            playsBefore = log.count();
+        }
+        
+        Path target = PlayLog.compactionDirectory(store.logDirectory(name));
+        if (Files.exists(target)) {
+            PlayLog.deleteRecursively(target);
+        }
+        PlayLog compacted = store.newLog(target, true);
+        boolean closed = false;
+        try {
+            merge(log, blocks, cutoff, compacted);
+            synchronized (log) {
+                // Plays appended since the snapshot are carried over as they are
+                log.copyBlocksTo(compacted, blocks.size());
+                compacted.force();
+                compacted.close();
+                closed = true;
+                log.replaceWith(target);
+                logger.debug("Compacted play log {}: {} -> {} plays, {} -> {} bytes",
+                        name, playsBefore, log.count(), bytesBefore, log.sizeBytes());
+            }
+        } finally {
+            if (!closed) {
+                compacted.close();
+            }
+            if (Files.exists(target)) {
+                PlayLog.deleteRecursively(target);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Merge the blocks into the compacted log in time order, keeping each play at or after the
+     * cutoff once. Each block is sorted, so the merge only needs the blocks that overlap the
+     * current play: the next block by earliest play is opened once the merge reaches it.
+     */
+    private void merge(PlayLog log, List<PlayLog.BlockRef> blocks, long cutoff, PlayLog target) throws IOException {
+        List<PlayLog.BlockRef> byStart = new ArrayList<>(blocks);
+        byStart.sort(Comparator.comparingLong(block -> block.minPlayedAt));
+        PriorityQueue<Cursor> open = new PriorityQueue<>();
+        List<PlayHistoryItem> kept = new ArrayList<>(target.blockPlays());
+        Set<PlayKey> keysAtTime = new HashSet<>();
+        long time = Long.MIN_VALUE;
+        int next = 0;
+        while (next < byStart.size() || !open.isEmpty()) {
+            while (next < byStart.size() && (open.isEmpty() || byStart.get(next).minPlayedAt <= open.peek().playedAt)) {
+                Cursor cursor = new Cursor(next, log.read(byStart.get(next), this::throttle));
+                next++;
+                if (cursor.advance()) {
+                    open.add(cursor);
+                }
+            }
+            Cursor head = open.poll();
+            if (head == null) {
+                continue;
+            }
+            if (head.playedAt != time) {
+                // Equal times are merged together, so duplicates only need checking among them
+                keysAtTime.clear();
+                time = head.playedAt;
+            }
+            if (time >= cutoff && keysAtTime.add(PlayKey.of(head.play))) {
+                kept.add(head.play);
+                if (kept.size() == target.blockPlays()) {
+                    target.appendCompacted(kept, this::throttle);
+                    kept.clear();
+                }
+            }
+            if (head.advance()) {
+                open.add(head);
+            }
+        }
+        if (!kept.isEmpty()) {
+            target.appendCompacted(kept, this::throttle);
+        }
+    }
+    
+    private long retentionCutoff(String name) {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        long days = config.getLongProperty("spotify.store.retentionDays." + name,
+                config.getLongProperty("spotify.store.retentionDays", 0));
+        return days > 0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days) : Long.MIN_VALUE;
+    }
+    
+    /**
+     * Wait until the bucket admits the given bytes, giving up if the compactor is stopped
+     */
+    private void throttle(long bytes) throws IOException {
+        long deadline = System.nanoTime() + bandwidth.reserve(bytes);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !stopped) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, STOP_POLL_NANOS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compaction interrupted");
+            }
+        }
+        if (stopped) {
+            throw new InterruptedIOException("Compaction stopped");
+        }
+    }
+    
+    /**
+     * Position in one decoded block during a merge, ordered by the time of its current play
+     * and then by block, so the merge is stable
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        final int block;
+        final List<PlayHistoryItem> plays;
+        int position = -1;
+        PlayHistoryItem play;
+        long playedAt;
+        
+        Cursor(int block, List<PlayHistoryItem> plays) {
+            this.block = block;
+            this.plays = plays;
+        }
+        
+        /**
+         * Move to the next play, returning false once the block is exhausted
+         */
+        boolean advance() {
+            if (++position >= plays.size()) {
+                play = null;
+                return false;
+            }
+            play = plays.get(position);
+            playedAt = play.getPlayedAtMillis();
+            return true;
+        }
+        
+        @Override
+        public int compareTo(Cursor other) {
+            int byTime = Long.compare(playedAt, other.playedAt);
+            return byTime != 0 ? byTime : Integer.compare(block, other.block);
+        }
+    }
+}
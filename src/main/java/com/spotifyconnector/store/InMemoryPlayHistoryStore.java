@@ -0,0 +1,77 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Play history kept on the heap, ordered by play time and deduplicated by {@link PlayKey}
+ */
+public class InMemoryPlayHistoryStore implements PlayHistoryStore {
+    private final Map<String, NavigableMap<PlayKey, PlayHistoryItem>> histories = new ConcurrentHashMap<>();
+    
+    @Override
+    public int append(String userId, List<PlayHistoryItem> items) {
+        NavigableMap<PlayKey, PlayHistoryItem> history = histories.computeIfAbsent(userId, id -> new TreeMap<>());
+        int added = 0;
+        synchronized (history) {
+            for (PlayHistoryItem item : items) {
+                if (history.putIfAbsent(PlayKey.of(item), item) == null) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+    
+    @Override
+    public List<PlayHistoryItem> getRecent(String userId, int limit) {
+        NavigableMap<PlayKey, PlayHistoryItem> history = histories.get(userId);
+        List<PlayHistoryItem> recent = new ArrayList<>();
+        if (history == null) {
+            return recent;
+        }
+        synchronized (history) {
+            for (PlayHistoryItem item : history.descendingMap().values()) {
+                if (recent.size() >= limit) {
+                    break;
+                }
+                recent.add(item);
+            }
+        }
+        return recent;
+    }
+    
+    @Override
+    public List<PlayHistoryItem> getRange(String userId, long fromMillis, long toMillis) {
+        NavigableMap<PlayKey, PlayHistoryItem> history = histories.get(userId);
+        if (history == null || fromMillis > toMillis) {
+            return new ArrayList<>();
+        }
+        synchronized (history) {
+            return new ArrayList<>(history.subMap(new PlayKey(fromMillis, ""), true,
+                    new PlayKey(toMillis, "\uffff"), true).values());
+        }
+    }
+    
+    @Override
+    public void flush() {
+        // Nothing to persist
+    }
+    
+    @Override
+    public long count(String userId) {
+        NavigableMap<PlayKey, PlayHistoryItem> history = histories.get(userId);
+        if (history == null) {
+            return 0;
+        }
+        synchronized (history) {
+            return history.size();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.spotifyconnector.store;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stores a block as a JSON array of plays, exactly as the API returned them
+ */
+public class JsonBlockCodec implements BlockCodec {
+    public static final byte ID = 1;
+    
+    private final ObjectMapper objectMapper;
+    private final JavaType listType;
+    
+    public JsonBlockCodec() {
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.listType = objectMapper.getTypeFactory().constructCollectionType(List.class, PlayHistoryItem.class);
+    }
+    
+    @Override
+    public byte getId() {
+        return ID;
+    }
+    
+    @Override
+    public byte[] encode(List<PlayHistoryItem> items) throws IOException {
+        return objectMapper.writeValueAsBytes(items);
+    }
+    
+    @Override
+    public List<PlayHistoryItem> decode(byte[] data, int count) throws IOException {
+        return objectMapper.readValue(data, listType);
+    }
+}
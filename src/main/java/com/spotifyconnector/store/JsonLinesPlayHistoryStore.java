@@ -0,0 +1,209 @@
+package com.spotifyconnector.store;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Play history kept on disk, one JSON-lines file per user, oldest play first.
+ *
+ * Only a small window of each user's most recent play keys is kept on the heap to
+ * deduplicate overlapping sync pages; plays older than that window are assumed to be
+ * stored already. This keeps memory flat no matter how long the history grows.
+ */
+public class JsonLinesPlayHistoryStore implements PlayHistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(JsonLinesPlayHistoryStore.class);
+    
+    private static final int DEDUP_WINDOW = 512;
+    
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+    private final Map<String, UserFile> users = new ConcurrentHashMap<>();
+    
+    public JsonLinesPlayHistoryStore(Path directory) throws IOException {
+        this.directory = directory;
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        Files.createDirectories(directory);
+    }
+    
+    @Override
+    public int append(String userId, List<PlayHistoryItem> items) throws IOException {
+        UserFile user = user(userId);
+        synchronized (user) {
+            List<PlayHistoryItem> sorted = new ArrayList<>(items);
+            sorted.sort(Comparator.comparingLong(PlayHistoryItem::getPlayedAtMillis));
+            
+            int added = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(user.file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (PlayHistoryItem item : sorted) {
+                    if (user.remember(PlayKey.of(item))) {
+                        writer.write(objectMapper.writeValueAsString(item));
+                        writer.newLine();
+                        added++;
+                    }
+                }
+            }
+            user.count += added;
+            return added;
+        }
+    }
+    
+    @Override
+    public List<PlayHistoryItem> getRecent(String userId, int limit) throws IOException {
+        UserFile user = user(userId);
+        Deque<String> tail = new ArrayDeque<>(Math.max(1, limit));
+        synchronized (user) {
+            if (limit <= 0 || !Files.exists(user.file)) {
+                return new ArrayList<>();
+            }
+            try (BufferedReader reader = Files.newBufferedReader(user.file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    if (tail.size() == limit) {
+                        tail.removeFirst();
+                    }
+                    tail.addLast(line);
+                }
+            }
+        }
+        List<PlayHistoryItem> recent = new ArrayList<>(tail.size());
+        for (String line : tail) {
+            recent.add(objectMapper.readValue(line, PlayHistoryItem.class));
+        }
+        Collections.reverse(recent);
+        return recent;
+    }
+    
+    /**
+     * Scans the whole file; use {@link SegmentedPlayHistoryStore} for indexed range queries
+     */
+    @Override
+    public List<PlayHistoryItem> getRange(String userId, long fromMillis, long toMillis) throws IOException {
+        UserFile user = user(userId);
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        synchronized (user) {
+            if (!Files.exists(user.file)) {
+                return plays;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(user.file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    PlayHistoryItem item = objectMapper.readValue(line, PlayHistoryItem.class);
+                    long playedAt = item.getPlayedAtMillis();
+                    if (playedAt >= fromMillis && playedAt <= toMillis) {
+                        plays.add(item);
+                    }
+                }
+            }
+        }
+        return plays;
+    }
+    
+    @Override
+    public long count(String userId) throws IOException {
+        UserFile user = user(userId);
+        synchronized (user) {
+            return user.count;
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        for (UserFile user : users.values()) {
+            synchronized (user) {
+                if (Files.exists(user.file)) {
+                    try (FileChannel channel = FileChannel.open(user.file, StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    }
+                }
+            }
+        }
+    }
+    
+    private UserFile user(String userId) throws IOException {
+        UserFile user = users.get(userId);
+        if (user != null) {
+            return user;
+        }
+        UserFile loaded = load(userId);
+        UserFile existing = users.putIfAbsent(userId, loaded);
+        return existing != null ? existing : loaded;
+    }
+    
+    /**
+     * Scan a user's file once to learn its size and most recent play keys
+     */
+    private UserFile load(String userId) throws IOException {
+        UserFile user = new UserFile(directory.resolve(fileName(userId)));
+        if (Files.exists(user.file)) {
+            try (BufferedReader reader = Files.newBufferedReader(user.file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        user.remember(PlayKey.of(objectMapper.readValue(line, PlayHistoryItem.class)));
+                        user.count++;
+                    }
+                }
+            }
+            logger.debug("Loaded {} plays for {} from {}", user.count, userId, user.file);
+        }
+        return user;
+    }
+    
+    private static String fileName(String userId) {
+        return userId.replaceAll("[^A-Za-z0-9._-]", "_") + ".jsonl";
+    }
+    
+    private static class UserFile {
+        private final Path file;
+        private final TreeSet<PlayKey> recentKeys = new TreeSet<>();
+        private long count;
+        
+        UserFile(Path file) {
+            this.file = file;
+        }
+        
+        /**
+         * Record a key, returning false if it is a duplicate or older than the dedup window
+         */
+        boolean remember(PlayKey key) {
+            if (recentKeys.size() >= DEDUP_WINDOW && key.compareTo(recentKeys.first()) <= 0) {
+                return false;
+            }
+            if (!recentKeys.add(key)) {
+                return false;
+            }
+            if (recentKeys.size() > DEDUP_WINDOW) {
+                recentKeys.pollFirst();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Local listening history, partitioned by Spotify user id
+ */
+public interface PlayHistoryStore {
+    
+    /**
+     * Merge plays into a user's history, skipping plays already present
+     * (same {@code played_at} and track id).
+     *
+     * @return the number of plays that were new
+     */
+    int append(String userId, List<PlayHistoryItem> items) throws IOException;
+    
+    /**
+     * Get the most recent plays for a user, newest first
+     */
+    List<PlayHistoryItem> getRecent(String userId, int limit) throws IOException;
+    
+    /**
+     * Get a user's plays with {@code fromMillis <= played_at <= toMillis}, oldest first
+     */
+    List<PlayHistoryItem> getRange(String userId, long fromMillis, long toMillis) throws IOException;
+    
+    /**
+     * Get the number of plays stored for a user
+     */
+    long count(String userId) throws IOException;
+    
+    /**
+     * Force every appended play to stable storage
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+
+import java.util.Objects;
+
+/**
+ * Identity of a single play: when it happened and which track was played.
+ * Two history items with the same key describe the same play and are deduplicated.
+ */
+public final class PlayKey implements Comparable<PlayKey> {
+    private final long playedAtMillis;
+    private final String trackId;
+    
+    public PlayKey(long playedAtMillis, String trackId) {
+        this.playedAtMillis = playedAtMillis;
+        this.trackId = trackId != null ? trackId : "";
+    }
+    
+    public static PlayKey of(PlayHistoryItem item) {
+        return new PlayKey(item.getPlayedAtMillis(), item.getTrackId());
+    }
+    
+    public long getPlayedAtMillis() {
+        return playedAtMillis;
+    }
+    
+    public String getTrackId() {
+        return trackId;
+    }
+    
+    @Override
+    public int compareTo(PlayKey other) {
+        int byTime = Long.compare(playedAtMillis, other.playedAtMillis);
+        return byTime != 0 ? byTime : trackId.compareTo(other.trackId);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PlayKey)) return false;
+        PlayKey other = (PlayKey) o;
+        return playedAtMillis == other.playedAtMillis && trackId.equals(other.trackId);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(playedAtMillis, trackId);
+    }
+    
+    @Override
+    public String toString() {
+        return playedAtMillis + ":" + trackId;
+    }
+}
@@ -0,0 +1,751 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * One user's play history: append-only segment files of encoded blocks plus a {@link TimeIndex}.
+ *
+ * A block holds a time-sorted run of plays behind a fixed header (magic, codec, count,
+ * earliest and latest play, payload length, CRC32 of the payload). Segments roll over at
+ * {@code maxSegmentBytes}. The segments are the source of truth: when the index does not end
+ * at the end of the last segment (e.g. after a crash between the two writes) it is rebuilt
+ * from the block headers, and a torn block at the end of the last segment is cut off.
+ *
+ * Plays are also indexed by track, and through the dictionary by album and artist, in a
+ * {@link PostingIndex} of the blocks holding them, rebuilt from the blocks if it falls out of
+ * step with them.
+ *
+ * Compaction rewrites the log into a sibling directory and swaps it in (see
+ * {@link HistoryCompactor}); directory renames make the swap all-or-nothing.
+ *
+ * Not thread-safe; {@link SegmentedPlayHistoryStore} serializes access per user.
+ */
+class PlayLog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PlayLog.class);
+    
+    static final int BLOCK_MAGIC = 0x504C4159; // "PLAY"
+    static final int BLOCK_HEADER_BYTES = 33;
+    
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final String COMMITTED_SUFFIX = ".compacted";
+    private static final String OLD_SUFFIX = ".old";
+    
+    /**
+     * Charged with the bytes a compaction reads and writes, e.g. to cap its I/O rate
+     */
+    interface Throttle {
+        void acquire(long bytes) throws IOException;
+    }
+    
+    private final Path directory;
+    private final BlockCodec writeCodec;
+    private final Map<Byte, BlockCodec> codecs;
+    private final EntityDictionary dictionary;
+    private final long maxSegmentBytes;
+    private final int maxBlockPlays;
+    private final boolean fsync;
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private TimeIndex index;
+    private PostingIndex postings;
+    private long count;
+    
+    PlayLog(Path directory, BlockCodec writeCodec, Map<Byte, BlockCodec> codecs, EntityDictionary dictionary,
+            long maxSegmentBytes, int maxBlockPlays, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.writeCodec = writeCodec;
+        this.codecs = codecs;
+        this.dictionary = dictionary;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxBlockPlays = Math.max(1, maxBlockPlays);
+        this.fsync = fsync;
+        open();
+    }
+    
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        openSegments();
+        this.index = new TimeIndex(directory.resolve("index.idx"));
+        if (!indexMatchesSegments()) {
+            rebuildIndex();
+        }
+        count = 0;
+        for (int entry = 0; entry < index.size(); entry++) {
+            count += index.count(entry);
+        }
+        this.postings = new PostingIndex(directory.resolve("postings.dat"), directory.resolve("postings.idx"));
+        if (postings.indexed() != count) {
+            rebuildPostings();
+        }
+    }
+    
+    /**
+     * Append plays that are not yet stored, in time order, returning how many were new.
+     * Duplicates are found by reading the keys of the stored plays in the batch's time range,
+     * so a late play is kept however old it is.
+     */
+    int append(List<PlayHistoryItem> items) throws IOException {
+        if (items.isEmpty()) {
+            return 0;
+        }
+        List<PlayHistoryItem> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(PlayHistoryItem::getPlayedAtMillis));
+        Set<PlayKey> seen = storedKeys(sorted.get(0).getPlayedAtMillis(),
+                sorted.get(sorted.size() - 1).getPlayedAtMillis());
+        List<PlayHistoryItem> fresh = new ArrayList<>(sorted.size());
+        for (PlayHistoryItem item : sorted) {
+            if (seen.add(PlayKey.of(item))) {
+                fresh.add(item);
+            }
+        }
+        for (int start = 0; start < fresh.size(); start += maxBlockPlays) {
+            List<PlayHistoryItem> block = fresh.subList(start, Math.min(fresh.size(), start + maxBlockPlays));
+            writeBlock(block);
+            indexBlock(trackIds(block), block.size());
+        }
+        postings.flush();
+        if (!fresh.isEmpty() && fsync) {
+            force();
+        }
+        count += fresh.size();
+        return fresh.size();
+    }
+    
+    /**
+     * Plays with {@code from <= played_at <= to}, oldest first: one binary search in the index,
+     * then one forward scan that decodes only the blocks overlapping the range
+     */
+    List<PlayHistoryItem> range(long fromMillis, long toMillis) throws IOException {
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        for (int entry : blocksOverlapping(fromMillis, toMillis)) {
+            plays.addAll(readBlock(entry, fromMillis, toMillis));
+        }
+        if (index.lastDisordered() >= 0) {
+            plays.sort(Comparator.comparingLong(PlayHistoryItem::getPlayedAtMillis));
+        }
+        return plays;
+    }
+    
+    /**
+     * Keys of the stored plays with {@code from <= played_at <= to}. Columnar blocks are read
+     * as columns, so no track is materialized.
+     */
+    private Set<PlayKey> storedKeys(long fromMillis, long toMillis) throws IOException {
+        Set<PlayKey> keys = new HashSet<>();
+        for (int entry : blocksOverlapping(fromMillis, toMillis)) {
+            FileChannel segment = segments.get(index.segment(entry));
+            BlockHeader header = readHeader(segment, index.offset(entry));
+            if (header == null) {
+                throw new IOException("Corrupt block at " + index.offset(entry) + " in segment " + index.segment(entry));
+            }
+            BlockCodec codec = codec(header);
+            byte[] payload = readPayload(segment, header);
+            if (!(codec instanceof ColumnarBlockCodec)) {
+                for (PlayHistoryItem play : codec.decodeRange(payload, header.count, fromMillis, toMillis)) {
+                    keys.add(PlayKey.of(play));
+                }
+                continue;
+            }
+            ColumnarBlockCodec.Columns columns = ((ColumnarBlockCodec) codec).decodeColumns(payload, header.count);
+            for (int i = 0; i < header.count; i++) {
+                long playedAt = columns.playedAt[i];
+                if (playedAt >= fromMillis && playedAt <= toMillis) {
+                    int track = columns.tracks[i];
+                    keys.add(new PlayKey(playedAt, track >= 0 ? dictionary.catalogId(track) : null));
+                }
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Index entries of the blocks that may hold plays in the range: one binary search, then a
+     * forward scan that stops at the first later block unless blocks arrived out of order
+     */
+    private List<Integer> blocksOverlapping(long fromMillis, long toMillis) {
+        List<Integer> entries = new ArrayList<>();
+        int lastDisordered = index.lastDisordered();
+        for (int entry = index.firstReaching(fromMillis); entry < index.size(); entry++) {
+            if (index.minPlayedAt(entry) > toMillis) {
+                if (entry > lastDisordered) {
+                    break;
+                }
+                continue;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+    
+    /**
+     * The most recent plays, newest first, reading blocks backwards from the end
+     */
+    List<PlayHistoryItem> recent(int limit) throws IOException {
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        if (limit <= 0) {
+            return plays;
+        }
+        Comparator<PlayHistoryItem> newestFirst = Comparator.comparingLong(PlayHistoryItem::getPlayedAtMillis).reversed();
+        for (int entry = index.size() - 1; entry >= 0; entry--) {
+            plays.addAll(readBlock(entry, Long.MIN_VALUE, Long.MAX_VALUE));
+            if (plays.size() >= limit) {
+                plays.sort(newestFirst);
+                // Earlier blocks can only matter if they may hold plays newer than the limit-th one
+                if (entry == 0 || index.runningMax(entry - 1) < plays.get(limit - 1).getPlayedAtMillis()) {
+                    break;
+                }
+            }
+        }
+        plays.sort(newestFirst);
+        return plays.size() > limit ? new ArrayList<>(plays.subList(0, limit)) : plays;
+    }
+    
+    long count() {
+        return count;
+    }
+    
+    /**
+     * Most plays written to one block
+     */
+    int blockPlays() {
+        return maxBlockPlays;
+    }
+    
+    /**
+     * Force written blocks and the index to disk
+     */
+    void force() throws IOException {
+        if (!segments.isEmpty()) {
+            activeSegment().force(false);
+        }
+        index.force();
+        postings.force();
+    }
+    
+    /**
+     * Times of the plays of a track, album or artist (by Spotify id), oldest first; only the
+     * blocks listed in its postings are read
+     */
+    long[] playTimes(EntityKind kind, String id) throws IOException {
+        int[] tracks = tracksOf(kind, id);
+        long[] times = new long[16];
+        int size = 0;
+        for (int entry : postings.blocks(tracks)) {
+            ColumnarBlockCodec.Columns columns = columns(entry);
+            for (int i = 0; i < columns.playedAt.length; i++) {
+                if (Arrays.binarySearch(tracks, columns.tracks[i]) >= 0) {
+                    if (size == times.length) {
+                        times = Arrays.copyOf(times, size * 2);
+                    }
+                    times[size++] = columns.playedAt[i];
+                }
+            }
+        }
+        times = Arrays.copyOf(times, size);
+        Arrays.sort(times);
+        return times;
+    }
+    
+    /**
+     * The most recent plays of a track, album or artist, newest first, reading the blocks listed
+     * in its postings backwards from the end
+     */
+    List<PlayHistoryItem> plays(EntityKind kind, String id, int limit) throws IOException {
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        if (limit <= 0) {
+            return plays;
+        }
+        int[] tracks = tracksOf(kind, id);
+        int[] blocks = postings.blocks(tracks);
+        Comparator<PlayHistoryItem> newestFirst = Comparator.comparingLong(PlayHistoryItem::getPlayedAtMillis).reversed();
+        for (int i = blocks.length - 1; i >= 0; i--) {
+            ColumnarBlockCodec.Columns columns = columns(blocks[i]);
+            for (int row = 0; row < columns.playedAt.length; row++) {
+                if (Arrays.binarySearch(tracks, columns.tracks[row]) >= 0) {
+                    int context = columns.contexts[row];
+                    plays.add(new PlayHistoryItem(dictionary.track(columns.tracks[row]),
+                            ColumnarBlockCodec.formatPlayedAt(columns.playedAt[row]),
+                            context >= 0 ? dictionary.context(context) : null));
+                }
+            }
+            if (plays.size() >= limit) {
+                plays.sort(newestFirst);
+                // Earlier blocks can only matter if they may hold plays newer than the limit-th one
+                if (i == 0 || index.runningMax(blocks[i - 1]) < plays.get(limit - 1).getPlayedAtMillis()) {
+                    break;
+                }
+            }
+        }
+        plays.sort(newestFirst);
+        return plays.size() > limit ? new ArrayList<>(plays.subList(0, limit)) : plays;
+    }
+    
+    /**
+     * Dictionary ids of the tracks of a track, album or artist, sorted
+     */
+    private int[] tracksOf(EntityKind kind, String id) {
+        int[] tracks;
+        switch (kind) {
+            case TRACK:
+                int track = dictionary.lookup(EntityDictionary.Kind.TRACK, id);
+                tracks = track >= 0 ? new int[] {track} : new int[0];
+                break;
+            case ALBUM:
+                int album = dictionary.lookup(EntityDictionary.Kind.ALBUM, id);
+                tracks = album >= 0 ? dictionary.tracksOfAlbum(album) : new int[0];
+                break;
+            default:
+                int artist = dictionary.lookup(EntityDictionary.Kind.ARTIST, id);
+                tracks = artist >= 0 ? dictionary.tracksOfArtist(artist) : new int[0];
+                break;
+        }
+        Arrays.sort(tracks);
+        return tracks;
+    }
+    
+    /**
+     * Add the block that was just written to the posting lists
+     */
+    private void indexBlock(int[] tracks, int count) throws IOException {
+        // Postings must never refer to a track the dictionary lost
+        dictionary.flush();
+        postings.add(index.size() - 1, tracks, count);
+    }
+    
+    private int[] trackIds(List<PlayHistoryItem> plays) throws IOException {
+        int[] tracks = new int[plays.size()];
+        for (int i = 0; i < plays.size(); i++) {
+            PlayHistoryItem play = plays.get(i);
+            tracks[i] = play.getTrack() != null ? dictionary.trackId(play.getTrack()) : -1;
+        }
+        return tracks;
+    }
+    
+    /**
+     * Recreate the posting lists from the blocks; columnar blocks already hold dictionary ids
+     */
+    private void rebuildPostings() throws IOException {
+        logger.info("Rebuilding play postings in {}", directory);
+        postings.clear();
+        for (int entry = 0; entry < index.size(); entry++) {
+            ColumnarBlockCodec.Columns columns = columns(entry);
+            dictionary.flush();
+            postings.add(entry, columns.tracks, columns.tracks.length);
+        }
+        postings.force();
+    }
+    
+    /**
+     * The columns of an indexed block
+     */
+    private ColumnarBlockCodec.Columns columns(int entry) throws IOException {
+        FileChannel segment = segments.get(index.segment(entry));
+        BlockHeader header = readHeader(segment, index.offset(entry));
+        if (header == null) {
+            throw new IOException("Corrupt block at " + index.offset(entry) + " in segment " + index.segment(entry));
+        }
+        return columns(header, readPayload(segment, header));
+    }
+    
+    /**
+     * The columns of a block; blocks of other codecs are decoded and their tracks and contexts
+     * looked up in the dictionary
+     */
+    private ColumnarBlockCodec.Columns columns(BlockHeader header, byte[] payload) throws IOException {
+        BlockCodec codec = codec(header);
+        if (codec instanceof ColumnarBlockCodec) {
+            return ((ColumnarBlockCodec) codec).decodeColumns(payload, header.count);
+        }
+        List<PlayHistoryItem> plays = codec.decode(payload, header.count);
+        long[] playedAt = new long[plays.size()];
+        int[] contexts = new int[plays.size()];
+        for (int i = 0; i < plays.size(); i++) {
+            PlayHistoryItem play = plays.get(i);
+            playedAt[i] = play.getPlayedAtMillis();
+            contexts[i] = play.getContext() != null ? dictionary.contextId(play.getContext()) : -1;
+        }
+        return new ColumnarBlockCodec.Columns(playedAt, trackIds(plays), contexts);
+    }
+    
+    long sizeBytes() throws IOException {
+        long bytes = 0;
+        for (FileChannel segment : segments.values()) {
+            bytes += segment.size();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Whether a compaction would drop expired plays, restore time order, or merge at least
+     * {@code minUnderfilledBlocks} blocks holding less than half of {@code maxBlockPlays}
+     */
+    boolean needsCompaction(long retentionCutoffMillis, int minUnderfilledBlocks) {
+        if (index.size() == 0) {
+            return false;
+        }
+        if (index.lastDisordered() >= 0 || index.minPlayedAt(0) < retentionCutoffMillis) {
+            return true;
+        }
+        int underfilled = 0;
+        for (int entry = 0; entry < index.size() - 1; entry++) {
+            if (index.count(entry) < maxBlockPlays / 2) {
+                underfilled++;
+            }
+        }
+        return underfilled >= minUnderfilledBlocks;
+    }
+    
+    /**
+     * The blocks written so far, for a compaction to read without holding the log
+     */
+    List<BlockRef> blocks() {
+        List<BlockRef> blocks = new ArrayList<>(index.size());
+        for (int entry = 0; entry < index.size(); entry++) {
+            blocks.add(new BlockRef(segments.get(index.segment(entry)), index.offset(entry), index.minPlayedAt(entry)));
+        }
+        return blocks;
+    }
+    
+    /**
+     * Read a block listed by {@link #blocks()}; written blocks never change, so this is safe
+     * while the log is being appended to
+     */
+    List<PlayHistoryItem> read(BlockRef block, Throttle throttle) throws IOException {
+        BlockHeader header = readHeader(block.segment, block.offset);
+        if (header == null) {
+            throw new IOException("Corrupt block at " + block.offset + " in " + directory);
+        }
+        throttle.acquire(header.end() - header.offset);
+        return codec(header).decode(readPayload(block.segment, header), header.count);
+    }
+    
+    /**
+     * Append plays that are already sorted and deduplicated, in full blocks
+     */
+    void appendCompacted(List<PlayHistoryItem> plays, Throttle throttle) throws IOException {
+        for (int start = 0; start < plays.size(); start += maxBlockPlays) {
+            List<PlayHistoryItem> block = plays.subList(start, Math.min(plays.size(), start + maxBlockPlays));
+            throttle.acquire(writeBlock(block));
+            indexBlock(trackIds(block), block.size());
+        }
+        count += plays.size();
+    }
+    
+    /**
+     * Copy the blocks from the given entry on to another log as they are
+     */
+    void copyBlocksTo(PlayLog target, int fromEntry) throws IOException {
+        for (int entry = fromEntry; entry < index.size(); entry++) {
+            FileChannel segment = segments.get(index.segment(entry));
+            BlockHeader header = readHeader(segment, index.offset(entry));
+            if (header == null) {
+                throw new IOException("Corrupt block at " + index.offset(entry) + " in segment " + index.segment(entry));
+            }
+            byte[] payload = readPayload(segment, header);
+            target.writeBlock(header.codec, header.count, header.minPlayedAt, header.maxPlayedAt, payload);
+            target.indexBlock(columns(header, payload).tracks, header.count);
+            target.count += header.count;
+        }
+    }
+    
+    /**
+     * Swap in a compacted copy of this log built in {@link #compactionDirectory}. The copy is
+     * first renamed to a committed name; from then on {@link #recoverCompaction} completes the
+     * swap, here or after a crash.
+     */
+    void replaceWith(Path compacted) throws IOException {
+        Files.move(compacted, sibling(directory, COMMITTED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        close();
+        try {
+            recoverCompaction(directory);
+        } finally {
+            open();
+        }
+    }
+    
+    static Path compactionDirectory(Path directory) {
+        return sibling(directory, COMPACTING_SUFFIX);
+    }
+    
+    /**
+     * Whether a directory belongs to a compaction rather than being a log
+     */
+    static boolean isCompactionDirectory(Path directory) {
+        String name = directory.getFileName().toString();
+        return name.endsWith(COMPACTING_SUFFIX) || name.endsWith(COMMITTED_SUFFIX) || name.endsWith(OLD_SUFFIX);
+    }
+    
+    /**
+     * Finish a compaction that was committed, or discard one that was not; call before opening
+     */
+    static void recoverCompaction(Path directory) throws IOException {
+        Path compacting = sibling(directory, COMPACTING_SUFFIX);
+        Path committed = sibling(directory, COMMITTED_SUFFIX);
+        Path old = sibling(directory, OLD_SUFFIX);
+        if (Files.exists(compacting)) {
+            deleteRecursively(compacting);
+        }
+        if (Files.exists(committed)) {
+            if (Files.exists(directory)) {
+                Files.move(directory, old, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(committed, directory, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (Files.exists(old)) {
+            deleteRecursively(old);
+        }
+    }
+    
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    private static Path sibling(Path directory, String suffix) {
+        return directory.resolveSibling(directory.getFileName() + suffix);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        index.close();
+        postings.close();
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+    
+    /**
+     * Encode and write a time-sorted block, returning the number of bytes written
+     */
+    private int writeBlock(List<PlayHistoryItem> block) throws IOException {
+        return writeBlock(writeCodec.getId(), block.size(), block.get(0).getPlayedAtMillis(),
+                block.get(block.size() - 1).getPlayedAtMillis(), writeCodec.encode(block));
+    }
+    
+    private int writeBlock(byte codec, int plays, long min, long max, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + payload.length);
+        buffer.putInt(BLOCK_MAGIC)
+                .put(codec)
+                .putInt(plays)
+                .putLong(min)
+                .putLong(max)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+        int length = buffer.remaining();
+        
+        FileChannel segment = activeSegment();
+        if (segment.size() > 0 && segment.size() + length > maxSegmentBytes) {
+            // Always force a full segment: force() only covers the active one
+            segment.force(false);
+            segment = openSegment(segments.lastKey() + 1);
+        }
+        long offset = segment.size();
+        writeFully(segment, buffer, offset);
+        index.append(min, max, segments.lastKey(), offset, plays);
+        return length;
+    }
+    
+    private List<PlayHistoryItem> readBlock(int entry, long fromMillis, long toMillis) throws IOException {
+        FileChannel segment = segments.get(index.segment(entry));
+        if (segment == null) {
+            throw new IOException("Index refers to missing segment " + index.segment(entry) + " in " + directory);
+        }
+        BlockHeader header = readHeader(segment, index.offset(entry));
+        if (header == null) {
+            throw new IOException("Corrupt block at " + index.offset(entry) + " in segment " + index.segment(entry));
+        }
+        return codec(header).decodeRange(readPayload(segment, header), header.count, fromMillis, toMillis);
+    }
+    
+    private BlockCodec codec(BlockHeader header) throws IOException {
+        BlockCodec codec = codecs.get(header.codec);
+        if (codec == null) {
+            throw new IOException("Unknown block codec " + header.codec + " in " + directory);
+        }
+        return codec;
+    }
+    
+    /**
+     * Read the header of the block at the given offset, or null if there is no complete block there
+     */
+    private static BlockHeader readHeader(FileChannel segment, long offset) throws IOException {
+        if (offset + BLOCK_HEADER_BYTES > segment.size()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        readFully(segment, buffer, offset);
+        buffer.flip();
+        if (buffer.getInt() != BLOCK_MAGIC) {
+            return null;
+        }
+        BlockHeader header = new BlockHeader(offset, buffer.get(), buffer.getInt(), buffer.getLong(), buffer.getLong(),
+                buffer.getInt(), buffer.getInt());
+        if (header.payloadLength < 0 || header.end() > segment.size()) {
+            return null;
+        }
+        return header;
+    }
+    
+    private static byte[] readPayload(FileChannel segment, BlockHeader header) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(header.payloadLength);
+        readFully(segment, payload, header.offset + BLOCK_HEADER_BYTES);
+        return payload.array();
+    }
+    
+    private boolean indexMatchesSegments() throws IOException {
+        if (index.size() == 0) {
+            for (FileChannel segment : segments.values()) {
+                if (segment.size() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int last = index.size() - 1;
+        if (index.segment(last) != segments.lastKey()) {
+            return false;
+        }
+        BlockHeader header = readHeader(activeSegment(), index.offset(last));
+        return header != null && header.end() == activeSegment().size();
+    }
+    
+    /**
+     * Recreate the index from the block headers of every segment, cutting off a torn tail
+     */
+    private void rebuildIndex() throws IOException {
+        logger.info("Rebuilding play index in {}", directory);
+        index.clear();
+        for (Map.Entry<Integer, FileChannel> entry : segments.entrySet()) {
+            FileChannel segment = entry.getValue();
+            long offset = 0;
+            while (offset < segment.size()) {
+                BlockHeader header = readHeader(segment, offset);
+                if (header == null || !checksumMatches(segment, header)) {
+                    logger.warn("Truncating segment {} of {} at offset {}: incomplete or corrupt block",
+                            entry.getKey(), directory, offset);
+                    segment.truncate(offset);
+                    break;
+                }
+                index.append(header.minPlayedAt, header.maxPlayedAt, entry.getKey(), offset, header.count);
+                offset = header.end();
+            }
+        }
+        index.force();
+    }
+    
+    private static boolean checksumMatches(FileChannel segment, BlockHeader header) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(readPayload(segment, header));
+        return (int) crc.getValue() == header.crc;
+    }
+    
+    private void openSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(number, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+    }
+    
+    private FileChannel activeSegment() throws IOException {
+        return segments.isEmpty() ? openSegment(1) : segments.lastEntry().getValue();
+    }
+    
+    private FileChannel openSegment(int number) throws IOException {
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(number, channel);
+        return channel;
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment at " + position);
+            }
+            position += read;
+        }
+    }
+    
+    /**
+     * Location of a block, valid until the log is compacted
+     */
+    static final class BlockRef {
+        final FileChannel segment;
+        final long offset;
+        final long minPlayedAt;
+        
+        BlockRef(FileChannel segment, long offset, long minPlayedAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.minPlayedAt = minPlayedAt;
+        }
+    }
+    
+    /**
+     * Fixed-size header in front of every block
+     */
+    static final class BlockHeader {
+        final long offset;
+        final byte codec;
+        final int count;
+        final long minPlayedAt;
+        final long maxPlayedAt;
+        final int payloadLength;
+        final int crc;
+        
+        BlockHeader(long offset, byte codec, int count, long minPlayedAt, long maxPlayedAt, int payloadLength, int crc) {
+            this.offset = offset;
+            this.codec = codec;
+            this.count = count;
+            this.minPlayedAt = minPlayedAt;
+            this.maxPlayedAt = maxPlayedAt;
+            this.payloadLength = payloadLength;
+            this.crc = crc;
+        }
+        
+        long end() {
+            return offset + BLOCK_HEADER_BYTES + payloadLength;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.spotifyconnector.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * One user's posting lists: for every track (by {@link EntityDictionary} id) the blocks that
+ * hold its plays, as {@link TimeIndex} entries, which locate the block's segment and offset.
+ * Album and artist lookups take the album's or artist's tracks from the dictionary and merge
+ * their lists; the plays themselves are read from the listed blocks.
+ *
+ * Postings are written in pages to an append-only file: a page holds one track's blocks from
+ * one flush, as varint deltas, and the file offset of the track's previous page, so a track's
+ * pages form a chain from newest to oldest. The head table holds the offset of the newest page
+ * of each track this user has played, sorted by track id, so it grows with the user's library
+ * rather than with the dictionary shared by all users. Nothing else is kept in memory, and a
+ * lookup reads only the pages of the tracks asked for. Blocks added since the last flush are
+ * held until the next one.
+ *
+ * The head table is saved as an append-only log next to the pages: every flush appends the new
+ * heads of the tracks it wrote, and the log is rewritten once it holds more than twice as many
+ * records as tracks. Head log layout: a 32-byte header (magic, version, plays indexed, committed
+ * length of the page file, committed number of head records) followed by records of track id
+ * (int) and page offset (long); the last record of a track wins. Page layout: payload length
+ * (int), CRC32 of the payload (int), then the track id, previous page offset plus one, block
+ * count and block deltas as varints. Pages and head records past the committed lengths are cut
+ * off on open; the owning {@link PlayLog} rebuilds the index from its blocks when the number of
+ * indexed plays does not match its own.
+ */
+class PostingIndex implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PostingIndex.class);
+    
+    private static final int MAGIC = 0x50505831; // "PPX1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int HEAD_RECORD_BYTES = 12;
+    private static final int PAGE_HEADER_BYTES = 8;
+    private static final int MAX_PENDING_BLOCKS = 1024;
+    private static final int MIN_HEAD_RECORDS_TO_REWRITE = 1024;
+    
+    private final Path headFile;
+    private final FileChannel pages;
+    private FileChannel heads;
+    private final TreeMap<Integer, IntList> pending = new TreeMap<>();
+    private int[] headTracks = new int[16];
+    private long[] headOffsets = new long[16];
+    private int headCount;
+    private long headRecords;
+    private long indexed;
+    private long committed;
+    private int pendingBlocks;
+    private long pendingPlays;
+    
+    PostingIndex(Path pageFile, Path headFile) throws IOException {
+        this.headFile = headFile;
+        this.pages = FileChannel.open(pageFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.heads = openHeads(headFile);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        if (heads.size() >= HEADER_BYTES) {
+            readFully(heads, header, 0);
+            header.flip();
+        }
+        if (header.limit() == HEADER_BYTES && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getLong(16) <= pages.size()
+                && HEADER_BYTES + header.getLong(24) * HEAD_RECORD_BYTES <= heads.size()) {
+            indexed = header.getLong(8);
+            committed = header.getLong(16);
+            headRecords = header.getLong(24);
+            if (pages.size() > committed) {
+                logger.warn("Truncating play postings at offset {}: pages were never committed", committed);
+                pages.truncate(committed);
+            }
+            heads.truncate(HEADER_BYTES + headRecords * HEAD_RECORD_BYTES);
+            loadHeads();
+        } else {
+            clear();
+        }
+    }
+    
+    /**
+     * Number of plays indexed, including plays without a track
+     */
+    long indexed() {
+        return indexed + pendingPlays;
+    }
+    
+    /**
+     * Index a block of {@code count} plays; {@code tracks[i]} is -1 for a play without a track.
+     * Blocks must be added in index order.
+     */
+    void add(int block, int[] tracks, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int track = tracks[i];
+            if (track < 0) {
+                continue;
+            }
+            IntList blocks = pending.computeIfAbsent(track, key -> new IntList());
+            if (blocks.size == 0 || blocks.last() != block) {
+                blocks.add(block);
+            }
+        }
+        pendingBlocks++;
+        pendingPlays += count;
+        if (pendingBlocks >= MAX_PENDING_BLOCKS) {
+            flush();
+        }
+    }
+    
+    /**
+     * Blocks holding plays of any of the given tracks, in index order
+     */
+    int[] blocks(int[] tracks) throws IOException {
+        flush();
+        IntList found = new IntList();
+        for (int track : tracks) {
+            long page = head(track);
+            while (page >= 0) {
+                page = readPage(page, found);
+            }
+        }
+        int[] blocks = found.toArray();
+        Arrays.sort(blocks);
+        int distinct = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (distinct == 0 || blocks[distinct - 1] != blocks[i]) {
+                blocks[distinct++] = blocks[i];
+            }
+        }
+        return Arrays.copyOf(blocks, distinct);
+    }
+    
+    /**
+     * Write the postings added since the last flush as one page per track
+     */
+    void flush() throws IOException {
+        if (pendingBlocks == 0) {
+            return;
+        }
+        long position = committed;
+        ByteBuffer records = ByteBuffer.allocate(pending.size() * HEAD_RECORD_BYTES);
+        for (Map.Entry<Integer, IntList> entry : pending.entrySet()) {
+            int track = entry.getKey();
+            IntList blocks = entry.getValue();
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(blocks.size * 2 + 16);
+            VarInts.writeUnsigned(payload, track);
+            VarInts.writeUnsigned(payload, head(track) + 1);
+            VarInts.writeUnsigned(payload, blocks.size);
+            int previous = 0;
+            for (int i = 0; i < blocks.size; i++) {
+                VarInts.writeUnsigned(payload, blocks.values[i] - previous);
+                previous = blocks.values[i];
+            }
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteBuffer page = ByteBuffer.allocate(PAGE_HEADER_BYTES + bytes.length)
+                    .putInt(bytes.length)
+                    .putInt((int) crc.getValue())
+                    .put(bytes)
+                    .flip();
+            records.putInt(track).putLong(position);
+            while (page.hasRemaining()) {
+                position += pages.write(page, position);
+            }
+        }
+        records.flip();
+        writeFully(heads, records, HEADER_BYTES + headRecords * HEAD_RECORD_BYTES);
+        setHeads(records.flip());
+        indexed += pendingPlays;
+        committed = position;
+        headRecords += pending.size();
+        pending.clear();
+        pendingBlocks = 0;
+        pendingPlays = 0;
+        // Publish the pages and heads only after they have been written completely
+        writeHeader();
+        if (headRecords > MIN_HEAD_RECORDS_TO_REWRITE && headRecords > 2L * headCount) {
+            rewriteHeads();
+        }
+    }
+    
+    /**
+     * Drop every posting, before the index is rebuilt
+     */
+    void clear() throws IOException {
+        pages.truncate(0);
+        heads.truncate(HEADER_BYTES);
+        pending.clear();
+        headCount = 0;
+        headRecords = 0;
+        indexed = 0;
+        committed = 0;
+        pendingBlocks = 0;
+        pendingPlays = 0;
+        writeHeader();
+    }
+    
+    void force() throws IOException {
+        flush();
+        pages.force(false);
+        heads.force(false);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        force();
+        pages.close();
+        heads.close();
+    }
+    
+    /**
+     * Offset of the track's newest page, or -1 if it has none
+     */
+    private long head(int track) {
+        int slot = Arrays.binarySearch(headTracks, 0, headCount, track);
+        return slot >= 0 ? headOffsets[slot] : -1;
+    }
+    
+    /**
+     * Point each track in the head records, in ascending track order, at its new page
+     */
+    private void setHeads(ByteBuffer records) {
+        int[] added = new int[records.remaining() / HEAD_RECORD_BYTES];
+        long[] addedOffsets = new long[added.length];
+        int addedCount = 0;
+        while (records.hasRemaining()) {
+            int track = records.getInt();
+            long offset = records.getLong();
+            int slot = Arrays.binarySearch(headTracks, 0, headCount, track);
+            if (slot >= 0) {
+                headOffsets[slot] = offset;
+            } else {
+                added[addedCount] = track;
+                addedOffsets[addedCount++] = offset;
+            }
+        }
+        if (addedCount > 0) {
+            mergeHeads(added, addedOffsets, addedCount);
+        }
+    }
+    
+    /**
+     * Merge new tracks, in ascending order, into the sorted head table
+     */
+    private void mergeHeads(int[] tracks, long[] offsets, int count) {
+        int[] mergedTracks = new int[Math.max(16, (headCount + count) * 3 / 2)];
+        long[] mergedOffsets = new long[mergedTracks.length];
+        int i = 0;
+        int j = 0;
+        int merged = 0;
+        while (i < headCount || j < count) {
+            if (j == count || (i < headCount && headTracks[i] < tracks[j])) {
+                mergedTracks[merged] = headTracks[i];
+                mergedOffsets[merged++] = headOffsets[i++];
+            } else {
+                mergedTracks[merged] = tracks[j];
+                mergedOffsets[merged++] = offsets[j++];
+            }
+        }
+        headTracks = mergedTracks;
+        headOffsets = mergedOffsets;
+        headCount = merged;
+    }
+    
+    /**
+     * Build the head table from the head log: later records of a track replace earlier ones
+     */
+    private void loadHeads() throws IOException {
+        int records = (int) headRecords;
+        ByteBuffer log = ByteBuffer.allocate(records * HEAD_RECORD_BYTES);
+        readFully(heads, log, HEADER_BYTES);
+        log.flip();
+        long[] order = new long[records];
+        int[] tracks = new int[records];
+        long[] offsets = new long[records];
+        for (int i = 0; i < records; i++) {
+            tracks[i] = log.getInt();
+            offsets[i] = log.getLong();
+            order[i] = (long) tracks[i] << 32 | i;
+        }
+        Arrays.sort(order);
+        int[] sortedTracks = new int[records];
+        long[] sortedOffsets = new long[records];
+        int count = 0;
+        for (int i = 0; i < records; i++) {
+            int record = (int) order[i];
+            if (count > 0 && sortedTracks[count - 1] == tracks[record]) {
+                count--;
+            }
+            sortedTracks[count] = tracks[record];
+            sortedOffsets[count++] = offsets[record];
+        }
+        headTracks = sortedTracks;
+        headOffsets = sortedOffsets;
+        headCount = count;
+    }
+    
+    /**
+     * Replace the head log with one record per track, through a temporary file
+     */
+    private void rewriteHeads() throws IOException {
+        Path temp = headFile.resolveSibling(headFile.getFileName() + ".tmp");
+        try (FileChannel rewritten = openHeads(temp)) {
+            rewritten.truncate(0);
+            ByteBuffer records = ByteBuffer.allocate(HEADER_BYTES + headCount * HEAD_RECORD_BYTES);
+            records.put(header(headCount));
+            for (int i = 0; i < headCount; i++) {
+                records.putInt(headTracks[i]).putLong(headOffsets[i]);
+            }
+            records.flip();
+            writeFully(rewritten, records, 0);
+            rewritten.force(false);
+        }
+        heads.close();
+        Files.move(temp, headFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        heads = openHeads(headFile);
+        headRecords = headCount;
+    }
+    
+    private void writeHeader() throws IOException {
+        writeFully(heads, header(headRecords), 0);
+    }
+    
+    private ByteBuffer header(long records) {
+        return ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(indexed)
+                .putLong(committed)
+                .putLong(records)
+                .flip();
+    }
+    
+    /**
+     * Add the blocks of the page at the given offset, returning the offset of the previous page
+     */
+    private long readPage(long offset, IntList blocks) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_HEADER_BYTES);
+        readFully(pages, header, offset);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length <= 0 || offset + PAGE_HEADER_BYTES + length > committed) {
+            throw new IOException("Corrupt posting page at offset " + offset);
+        }
+        ByteBuffer page = ByteBuffer.allocate(length);
+        readFully(pages, page, offset + PAGE_HEADER_BYTES);
+        CRC32 actual = new CRC32();
+        actual.update(page.array());
+        if ((int) actual.getValue() != crc) {
+            throw new IOException("Corrupt posting page at offset " + offset);
+        }
+        page.flip();
+        VarInts.readUnsigned(page);
+        long previous = VarInts.readUnsigned(page) - 1;
+        int count = VarInts.readUnsignedInt(page);
+        int block = 0;
+        for (int i = 0; i < count; i++) {
+            block += VarInts.readUnsignedInt(page);
+            blocks.add(block);
+        }
+        return previous;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of play postings at " + position);
+            }
+            position += read;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+    
+    private static FileChannel openHeads(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    /**
+     * Growable list of block ids
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        int last() {
+            return values[size - 1];
+        }
+        
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
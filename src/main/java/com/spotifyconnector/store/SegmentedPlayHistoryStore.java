@@ -0,0 +1,298 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Play history for years of listening: per user, segmented append-only files of encoded
+ * blocks and a memory-mapped time index (see {@link PlayLog} and {@link TimeIndex}).
+ *
+ * Range queries binary-search the index once and then scan forward, decoding only the
+ * blocks that overlap the range; nothing else is read. Appends are deduplicated against the
+ * stored plays in the batch's time range the same way. Per user, only the open log's index and
+ * posting heads are held in memory, and at most {@code spotify.store.maxOpenLogs} logs
+ * are open at once: the least recently used idle log is closed to make room for another.
+ *
+ * Plays are indexed by track, album and artist as they are appended, so per-entity questions
+ * ({@link #getPlayTimes}, {@link #getPlays}) read only the blocks their posting lists name.
+ *
+ * Logs can be compacted in the background ({@link #startCompaction()}), which also applies
+ * the retention policy.
+ *
+ * Blocks are written with the {@link ColumnarBlockCodec} by default: catalog metadata goes
+ * once into a dictionary shared by all users of the store, and each play is reduced to a
+ * few varints. Blocks written as JSON ({@code spotify.store.codec=json}) remain readable.
+ *
+ * The directory is locked for the lifetime of the store, so the GUI and the daemon cannot
+ * write the same history at once.
+ */
+public class SegmentedPlayHistoryStore implements PlayHistoryStore, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedPlayHistoryStore.class);
+    
+    private final Path directory;
+    private final BlockCodec writeCodec;
+    private final Map<Byte, BlockCodec> codecs = new HashMap<>();
+    private final long maxSegmentBytes;
+    private final int maxBlockPlays;
+    private final boolean fsync;
+    private final int maxOpenLogs;
+    private final LinkedHashMap<String, OpenLog> logs = new LinkedHashMap<>(16, 0.75f, true);
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final EntityDictionary dictionary;
+    private HistoryCompactor compactor;
+    
+    public SegmentedPlayHistoryStore(Path directory) throws IOException {
+        this(directory, SpotifyConfig.getInstance().getBooleanProperty("spotify.store.fsync", true));
+    }
+    
+    /**
+     * Open a store that forces every append to disk only if fsync is set; without it, durability
+     * is up to the caller (e.g. a {@link SyncJournal} calling {@link #flush()} at checkpoints)
+     */
+    public SegmentedPlayHistoryStore(Path directory, boolean fsync) throws IOException {
+        SpotifyConfig config = SpotifyConfig.getInstance();
+        this.directory = directory;
+        this.maxSegmentBytes = config.getLongProperty("spotify.store.segmentBytes", 64L * 1024 * 1024);
+        this.maxBlockPlays = config.getIntProperty("spotify.store.blockPlays", 256);
+        this.maxOpenLogs = Math.max(1, config.getIntProperty("spotify.store.maxOpenLogs", 32));
+        this.fsync = fsync;
+        
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Play history in " + directory + " is already in use");
+        }
+        this.lock = acquired;
+        
+        this.dictionary = new EntityDictionary(directory.resolve("dictionary.dat"),
+                config.getIntProperty("spotify.store.dictionaryCacheEntries", 2048));
+        codecs.put(JsonBlockCodec.ID, new JsonBlockCodec());
+        codecs.put(ColumnarBlockCodec.ID, new ColumnarBlockCodec(dictionary));
+        this.writeCodec = codecs.get("json".equals(config.getProperty("spotify.store.codec", "columnar"))
+                ? JsonBlockCodec.ID : ColumnarBlockCodec.ID);
+    }
+    
+    @Override
+    public int append(String userId, List<PlayHistoryItem> items) throws IOException {
+        return withLog(directoryName(userId), log -> log.append(items));
+    }
+    
+    @Override
+    public List<PlayHistoryItem> getRecent(String userId, int limit) throws IOException {
+        return withLog(directoryName(userId), log -> log.recent(limit));
+    }
+    
+    @Override
+    public List<PlayHistoryItem> getRange(String userId, long fromMillis, long toMillis) throws IOException {
+        return withLog(directoryName(userId), log -> log.range(fromMillis, toMillis));
+    }
+    
+    @Override
+    public long count(String userId) throws IOException {
+        return withLog(directoryName(userId), log -> log.count());
+    }
+    
+    /**
+     * Times of a user's plays of a track, album or artist (by Spotify id), oldest first, so the
+     * first element is when it was first played; only the blocks holding them are read
+     */
+    public long[] getPlayTimes(String userId, EntityKind kind, String id) throws IOException {
+        return withLog(directoryName(userId), log -> log.playTimes(kind, id));
+    }
+    
+    /**
+     * A user's most recent plays of a track, album or artist, newest first; only the blocks
+     * holding them are read
+     */
+    public List<PlayHistoryItem> getPlays(String userId, EntityKind kind, String id, int limit) throws IOException {
+        return withLog(directoryName(userId), log -> log.plays(kind, id, limit));
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(logs.keySet());
+        }
+        for (String name : names) {
+            withLog(name, log -> {
+                log.force();
+                return null;
+            });
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        HistoryCompactor running;
+        synchronized (this) {
+            running = compactor;
+            compactor = null;
+        }
+        // Outside the store's lock: a compaction in progress may still need it to finish
+        if (running != null) {
+            running.stop();
+        }
+        synchronized (this) {
+            closeLogs();
+        }
+    }
+    
+    private void closeLogs() throws IOException {
+        for (OpenLog open : logs.values()) {
+            synchronized (open.log) {
+                open.log.close();
+            }
+        }
+        logs.clear();
+        dictionary.close();
+        lock.release();
+        lockChannel.close();
+    }
+    
+    /**
+     * Start compacting logs in the background (see {@link HistoryCompactor}); stopped by {@link #close()}
+     */
+    public synchronized void startCompaction() {
+        if (compactor == null) {
+            compactor = new HistoryCompactor(this);
+            compactor.start();
+        }
+    }
+    
+    /**
+     * Run an operation on the log stored in the named directory, holding the log's lock
+     */
+    <T> T withLog(String name, LogOperation<T> operation) throws IOException {
+        PlayLog log = acquire(name);
+        try {
+            synchronized (log) {
+                return operation.apply(log);
+            }
+        } finally {
+            release(name, false);
+        }
+    }
+    
+    /**
+     * Get the log stored in the named directory, opening it if needed. The log stays open
+     * until it is {@link #release released}.
+     */
+    synchronized PlayLog acquire(String name) throws IOException {
+        OpenLog open = logs.get(name);
+        if (open == null) {
+            PlayLog.recoverCompaction(logDirectory(name));
+            open = new OpenLog(newLog(logDirectory(name), fsync));
+            logs.put(name, open);
+            logger.debug("Opened play log {} with {} plays", name, open.log.count());
+        }
+        open.users++;
+        return open.log;
+    }
+    
+    /**
+     * Release a log taken with {@link #acquire}, closing it if {@code close} is set and nobody
+     * else is using it; idle logs beyond {@code spotify.store.maxOpenLogs} are closed as well
+     */
+    synchronized void release(String name, boolean close) throws IOException {
+        OpenLog open = logs.get(name);
+        if (open == null) {
+            return;
+        }
+        open.users--;
+        if (close && open.users == 0) {
+            logs.remove(name);
+            closeLog(name, open);
+        }
+        Iterator<Map.Entry<String, OpenLog>> eldest = logs.entrySet().iterator();
+        while (logs.size() > maxOpenLogs && eldest.hasNext()) {
+            Map.Entry<String, OpenLog> entry = eldest.next();
+            if (entry.getValue().users == 0) {
+                eldest.remove();
+                closeLog(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    synchronized boolean isOpen(String name) {
+        return logs.containsKey(name);
+    }
+    
+    private void closeLog(String name, OpenLog open) throws IOException {
+        synchronized (open.log) {
+            open.log.close();
+        }
+        logger.debug("Closed idle play log {}", name);
+    }
+    
+    /**
+     * Names of the directories holding user logs, opened or not
+     */
+    List<String> logNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                if (!PlayLog.isCompactionDirectory(entry)) {
+                    names.add(entry.getFileName().toString());
+                }
+            }
+        }
+        return names;
+    }
+    
+    Path logDirectory(String name) {
+        return directory.resolve(name);
+    }
+    
+    PlayLog newLog(Path logDirectory, boolean forceAppends) throws IOException {
+        return new PlayLog(logDirectory, writeCodec, codecs, dictionary, maxSegmentBytes, maxBlockPlays, forceAppends);
+    }
+    
+    private static String directoryName(String userId) {
+        return userId.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    
+    /**
+     * An operation on a user's log
+     */
+    interface LogOperation<T> {
+        T apply(PlayLog log) throws IOException;
+    }
+    
+    /**
+     * An open log and the number of callers using it
+     */
+    private static final class OpenLog {
+        private final PlayLog log;
+        private int users;
+        
+        OpenLog(PlayLog log) {
+            this.log = log;
+        }
+    }
+}
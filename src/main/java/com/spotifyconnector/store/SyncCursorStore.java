@@ -0,0 +1,103 @@
+package com.spotifyconnector.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Persists the recently-played high-water mark ({@code after} cursor, epoch millis) per user.
+ *
+ * Cursors are kept in a properties file that is rewritten through a temporary file
+ * and an atomic rename, so a crash never leaves a half-written file behind.
+ */
+public class SyncCursorStore {
+    private static final Logger logger = LoggerFactory.getLogger(SyncCursorStore.class);
+    
+    private final Path file;
+    private final Properties cursors = new Properties();
+    private boolean dirty;
+    
+    public SyncCursorStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (InputStream input = Files.newInputStream(file)) {
+                cursors.load(input);
+            }
+            logger.info("Loaded {} sync cursors from {}", cursors.size(), file);
+        }
+    }
+    
+    /**
+     * Get the high-water mark for a user, or 0 if the user was never synced
+     */
+    public synchronized long getCursor(String userId) {
+        String value = cursors.getProperty(userId);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed cursor for {}: {}", userId, value);
+            return 0;
+        }
+    }
+    
+    /**
+     * Advance a user's high-water mark; cursors never move backwards
+     */
+    public synchronized void advance(String userId, long cursor) throws IOException {
+        if (update(userId, cursor)) {
+            save(false);
+        }
+    }
+    
+    /**
+     * Advance a user's high-water mark in memory only, for a caller that logs the change itself
+     * (see {@link SyncJournal}) and saves it with {@link #flush()}
+     *
+     * @return whether the mark moved
+     */
+    public synchronized boolean update(String userId, long cursor) {
+        if (cursor <= getCursor(userId)) {
+            return false;
+        }
+        cursors.setProperty(userId, Long.toString(cursor));
+        dirty = true;
+        return true;
+    }
+    
+    /**
+     * Save pending changes and force them to disk
+     */
+    public synchronized void flush() throws IOException {
+        if (dirty) {
+            save(true);
+        }
+    }
+    
+    private void save(boolean force) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+             OutputStream output = Channels.newOutputStream(channel)) {
+            cursors.store(output, "Spotify recently-played sync cursors (epoch millis)");
+            if (force) {
+                channel.force(false);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
@@ -0,0 +1,266 @@
+package com.spotifyconnector.store;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyconnector.config.SpotifyConfig;
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log for incremental sync: every fetched page is logged together with the cursor
+ * it advances to, so the plays and the cursor are committed as one record.
+ *
+ * A commit appends the record and waits until it is on disk; whoever finds no fsync running
+ * forces the file for everyone whose record is written by then, so concurrent account syncs
+ * share fsyncs (group commit). Only then are the plays appended to the store and the cursor
+ * advanced in memory; neither is forced. Once the log exceeds {@code spotify.wal.checkpointBytes}
+ * the store and cursors are flushed and the log is emptied.
+ *
+ * On startup the log is replayed into the store and cursor store. Both ignore what they have
+ * already seen, so replaying a record twice is harmless; a torn record at the end was never
+ * acknowledged and is cut off, and its page is simply fetched again.
+ *
+ * Record layout: payload length (int), CRC32 of the payload (int), JSON payload.
+ */
+public class SyncJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SyncJournal.class);
+    
+    private static final int RECORD_HEADER_BYTES = 8;
+    
+    private final Path file;
+    private final FileChannel channel;
+    private final PlayHistoryStore historyStore;
+    private final SyncCursorStore cursorStore;
+    private final ObjectMapper objectMapper;
+    private final long checkpointBytes;
+    
+    // Commits hold the read lock from append until applied, so a checkpoint never drops a record
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private final Object syncMonitor = new Object();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    
+    private volatile long written;
+    private long durable;
+    private boolean syncing;
+    
+    public SyncJournal(Path file, PlayHistoryStore historyStore, SyncCursorStore cursorStore) throws IOException {
+        this.file = file;
+        this.historyStore = historyStore;
+        this.cursorStore = cursorStore;
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.checkpointBytes = SpotifyConfig.getInstance().getLongProperty("spotify.wal.checkpointBytes", 16L * 1024 * 1024);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+    
+    /**
+     * Durably log a page of plays with the cursor it advances to, then apply both
+     *
+     * @return the number of plays that were new to the store
+     */
+    public int commit(String userId, List<PlayHistoryItem> items, long cursor) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(new Entry(userId, cursor, items));
+        int added;
+        checkpointLock.readLock().lock();
+        try {
+            awaitDurable(append(payload));
+            added = apply(userId, items, cursor);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        commits.incrementAndGet();
+        if (written > checkpointBytes && checkpointing.compareAndSet(false, true)) {
+            try {
+                checkpoint();
+            } finally {
+                checkpointing.set(false);
+            }
+        }
+        return added;
+    }
+    
+    /**
+     * Flush the store and cursors, then empty the log
+     */
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            if (written == 0) {
+                return;
+            }
+            historyStore.flush();
+            cursorStore.flush();
+            channel.truncate(0);
+            channel.force(false);
+            written = 0;
+            synchronized (syncMonitor) {
+                durable = 0;
+            }
+            logger.debug("Checkpointed sync journal: {} commits in {} fsyncs since start", commits.get(), fsyncs.get());
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+    
+    public long getCommitCount() {
+        return commits.get();
+    }
+    
+    public long getFsyncCount() {
+        return fsyncs.get();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Write a record after the previous one, returning the log position it ends at
+     */
+    private synchronized long append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+        long position = written;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        written = position;
+        return position;
+    }
+    
+    /**
+     * Wait until the log is on disk up to the given position. The first waiter to find no
+     * fsync in progress forces the file on behalf of every record written so far; the others
+     * wait for it, and one of them leads the next round if that did not cover them.
+     */
+    private void awaitDurable(long position) throws IOException {
+        while (true) {
+            long target;
+            synchronized (syncMonitor) {
+                while (durable < position && syncing) {
+                    try {
+                        syncMonitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the sync journal");
+                    }
+                }
+                if (durable >= position) {
+                    return;
+                }
+                syncing = true;
+                target = written;
+            }
+            boolean synced = false;
+            try {
+                channel.force(false);
+                fsyncs.incrementAndGet();
+                synced = true;
+            } finally {
+                synchronized (syncMonitor) {
+                    if (synced) {
+                        durable = Math.max(durable, target);
+                    }
+                    syncing = false;
+                    syncMonitor.notifyAll();
+                }
+            }
+        }
+    }
+    
+    private int apply(String userId, List<PlayHistoryItem> items, long cursor) throws IOException {
+        int added = historyStore.append(userId, items);
+        cursorStore.update(userId, cursor);
+        return added;
+    }
+    
+    /**
+     * Replay every complete record, cut off a torn tail and checkpoint what was replayed
+     */
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        int replayed = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (position < size) {
+            byte[] payload = null;
+            if (position + RECORD_HEADER_BYTES <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                int crc = header.getInt();
+                if (length > 0 && position + RECORD_HEADER_BYTES + length <= size) {
+                    ByteBuffer buffer = ByteBuffer.allocate(length);
+                    channel.read(buffer, position + RECORD_HEADER_BYTES);
+                    CRC32 actual = new CRC32();
+                    actual.update(buffer.array());
+                    payload = (int) actual.getValue() == crc && !buffer.hasRemaining() ? buffer.array() : null;
+                }
+            }
+            if (payload == null) {
+                logger.warn("Truncating sync journal {} at offset {}: incomplete or corrupt record", file, position);
+                channel.truncate(position);
+                break;
+            }
+            Entry entry = objectMapper.readValue(payload, Entry.class);
+            apply(entry.userId, entry.items, entry.cursor);
+            replayed++;
+            position += RECORD_HEADER_BYTES + payload.length;
+        }
+        written = position;
+        durable = position;
+        if (replayed > 0) {
+            logger.info("Replayed {} sync journal records from {}", replayed, file);
+            checkpoint();
+        }
+    }
+    
+    /**
+     * One logged page: the user, the cursor it advances to and its plays
+     */
+    private static class Entry {
+        @JsonProperty("user")
+        private String userId;
+        
+        @JsonProperty("cursor")
+        private long cursor;
+        
+        @JsonProperty("items")
+        private List<PlayHistoryItem> items;
+        
+        Entry() {}
+        
+        Entry(String userId, long cursor, List<PlayHistoryItem> items) {
+            this.userId = userId;
+            this.cursor = cursor;
+            this.items = items;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.spotifyconnector.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped index of the blocks of one play log, in append order.
+ *
+ * Each entry locates a block (segment and offset) and holds its earliest play and the running
+ * maximum of {@code played_at} over all blocks up to and including it. The running maximum
+ * never decreases, so the first block that can hold plays at or after a time is found with
+ * one binary search. Blocks normally arrive in time order; the header remembers the last
+ * block that did not (a late play), so a scan knows how far it must go.
+ *
+ * Layout: a 32-byte header (magic, version, entry count, last out-of-order entry) followed
+ * by 32-byte entries (running max, min, offset, segment, play count).
+ */
+class TimeIndex implements AutoCloseable {
+    private static final int MAGIC = 0x50495831; // "PIX1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 32;
+    private static final int INITIAL_ENTRIES = 1024;
+    
+    private static final int COUNT_POSITION = 8;
+    private static final int DISORDERED_POSITION = 16;
+    
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int size;
+    private int lastDisordered;
+    
+    TimeIndex(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long existing = channel.size();
+        map(Math.max(capacityFor(INITIAL_ENTRIES), existing));
+        if (existing >= HEADER_BYTES && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+            size = (int) buffer.getLong(COUNT_POSITION);
+            lastDisordered = (int) buffer.getLong(DISORDERED_POSITION);
+        } else {
+            clear();
+        }
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    long runningMax(int entry) {
+        return buffer.getLong(position(entry));
+    }
+    
+    long minPlayedAt(int entry) {
+        return buffer.getLong(position(entry) + 8);
+    }
+    
+    long offset(int entry) {
+        return buffer.getLong(position(entry) + 16);
+    }
+    
+    int segment(int entry) {
+        return buffer.getInt(position(entry) + 24);
+    }
+    
+    int count(int entry) {
+        return buffer.getInt(position(entry) + 28);
+    }
+    
+    /**
+     * Index of the last block that starts before the running maximum of the blocks before it, or -1
+     */
+    int lastDisordered() {
+        return lastDisordered;
+    }
+    
+    /**
+     * First entry whose running maximum is at or after the given time; {@link #size()} if none.
+     * Every block before it holds only earlier plays.
+     */
+    int firstReaching(long playedAtMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (runningMax(middle) < playedAtMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    void append(long minPlayedAt, long maxPlayedAt, int segment, long offset, int count) throws IOException {
+        if (position(size + 1) > buffer.capacity()) {
+            map(Math.max(capacityFor(INITIAL_ENTRIES), (long) buffer.capacity() * 2));
+        }
+        long previousMax = size > 0 ? runningMax(size - 1) : Long.MIN_VALUE;
+        int position = position(size);
+        buffer.putLong(position, Math.max(previousMax, maxPlayedAt));
+        buffer.putLong(position + 8, minPlayedAt);
+        buffer.putLong(position + 16, offset);
+        buffer.putInt(position + 24, segment);
+        buffer.putInt(position + 28, count);
+        if (minPlayedAt < previousMax) {
+            lastDisordered = size;
+            buffer.putLong(DISORDERED_POSITION, lastDisordered);
+        }
+        size++;
+        // Publish the entry only after it has been written completely
+        buffer.putLong(COUNT_POSITION, size);
+    }
+    
+    /**
+     * Drop every entry, e.g. before rebuilding the index from the segments
+     */
+    void clear() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(COUNT_POSITION, 0);
+        buffer.putLong(DISORDERED_POSITION, -1);
+        size = 0;
+        lastDisordered = -1;
+    }
+    
+    void force() {
+        buffer.force();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+    
+    private void map(long capacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+    
+    private static long capacityFor(int entries) {
+        return HEADER_BYTES + (long) entries * ENTRY_BYTES;
+    }
+    
+    private static int position(int entry) {
+        return HEADER_BYTES + entry * ENTRY_BYTES;
+    }
+}
@@ -0,0 +1,56 @@
+package com.spotifyconnector.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 variable-length integers: 7 bits per byte, high bit set on all but the last byte.
+ * Signed values are zigzag-encoded first so small negative deltas stay short.
+ */
+final class VarInts {
+    
+    private VarInts() {}
+    
+    static void writeUnsigned(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    static void writeSigned(ByteArrayOutputStream out, long value) {
+        writeUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+    
+    static long readUnsigned(ByteBuffer in) throws IOException {
+        long value = 0;
+        try {
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated varint");
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    static long readSigned(ByteBuffer in) throws IOException {
+        long raw = readUnsigned(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+    
+    static int readUnsignedInt(ByteBuffer in) throws IOException {
+        long value = readUnsigned(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+}
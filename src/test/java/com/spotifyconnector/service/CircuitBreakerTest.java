@@ -0,0 +1,78 @@
+package com.spotifyconnector.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private static final long OPEN_MILLIS = 50;
+    
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /me", 3, 60_000);
+        
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+    
+    @Test
+    void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker("GET /me", 2, 60_000);
+        
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+    
+    @Test
+    void admitsOneTrialCallOnceOpenPeriodEnds() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("GET /me", 1, OPEN_MILLIS);
+        breaker.onFailure();
+        
+        Thread.sleep(OPEN_MILLIS + 20);
+        
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+    
+    @Test
+    void trialOutcomeClosesOrReopens() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("GET /me", 1, OPEN_MILLIS);
+        breaker.onFailure();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+        
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+    
+    @Test
+    void admitsNewTrialWhenPreviousNeverReported() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("GET /me", 1, OPEN_MILLIS);
+        breaker.onFailure();
+        Thread.sleep(OPEN_MILLIS + 20);
+        breaker.allowRequest();
+        
+        Thread.sleep(OPEN_MILLIS + 20);
+        
+        assertTrue(breaker.allowRequest());
+    }
+}
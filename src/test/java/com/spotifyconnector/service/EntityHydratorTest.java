@@ -0,0 +1,140 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Track;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EntityHydratorTest {
+    private static final String TOKEN = "token";
+    
+    @BeforeEach
+    void disableHedging() {
+        System.setProperty("spotify.latency.hedging", "false");
+    }
+    
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("spotify.latency.hedging");
+    }
+    
+    @Test
+    void enrichesDistinctArtistsInBatchesOfFiftyAndCachesThem() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(EntityHydratorTest::catalog)) {
+            EntityHydrator hydrator = new EntityHydrator(api.dataService(), new EntityCache(1000));
+            List<Track> tracks = new ArrayList<>();
+            for (int i = 0; i < 120; i++) {
+                // 60 distinct artists, each on two tracks
+                tracks.add(track("track-" + i, "artist-" + (i % 60)));
+            }
+            
+            assertEquals(60, hydrator.enrichArtists(TOKEN, tracks));
+            
+            assertEquals(List.of(50, 10), batchSizes(api, "/v1/artists"));
+            assertEquals(List.of("genre of artist-7"), tracks.get(67).getArtists().get(0).getGenres());
+            assertEquals(0, hydrator.enrichArtists(TOKEN, List.of(track("track-x", "artist-7"))));
+            assertEquals(2, api.requests().size());
+        }
+    }
+    
+    @Test
+    void leavesArtistsOfAFailedBatchAsTheyCame() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> new MockResponse().setResponseCode(400))) {
+            EntityHydrator hydrator = new EntityHydrator(api.dataService(), new EntityCache(1000));
+            Track track = track("track-1", "artist-1");
+            
+            assertEquals(0, hydrator.enrichArtists(TOKEN, List.of(track)));
+            
+            assertNull(track.getArtists().get(0).getGenres());
+        }
+    }
+    
+    @Test
+    void hydratesAlbumsAndTracksInBatchesWithoutModifyingSharedAlbums() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(EntityHydratorTest::catalog)) {
+            EntityHydrator hydrator = new EntityHydrator(api.dataService(), new EntityCache(1000));
+            List<Album> albums = new ArrayList<>();
+            List<Track> tracks = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                if (i % 2 == 0) {
+                    Album album = new Album();
+                    album.setId("album-" + i / 2);
+                    albums.add(album);
+                }
+                // Each album instance is shared by two tracks, as interned albums are
+                Track track = track("track-" + i, "artist-1");
+                track.setAlbum(albums.get(i / 2));
+                tracks.add(track);
+            }
+            
+            hydrator.hydrateTracks(TOKEN, tracks);
+            
+            assertEquals(List.of(20, 5), batchSizes(api, "/v1/albums"));
+            assertEquals(List.of(50), batchSizes(api, "/v1/tracks"));
+            assertEquals(List.of(1), batchSizes(api, "/v1/artists"));
+            Track track = tracks.get(3);
+            assertEquals(180_000, track.getDurationMs());
+            assertEquals("2020-01-01", track.getAlbum().getReleaseDate());
+            assertNotSame(albums.get(1), track.getAlbum());
+            assertNull(albums.get(1).getReleaseDate());
+        }
+    }
+    
+    /**
+     * Answer the several-artists, several-albums and several-tracks endpoints with a full
+     * entity for every id asked for
+     */
+    static MockResponse catalog(RecordedRequest request) {
+        List<String> ids = Arrays.asList(request.getRequestUrl().queryParameter("ids").split(","));
+        String path = request.getRequestUrl().encodedPath();
+        if (path.equals("/v1/albums")) {
+            return MockSpotifyApi.json("{\"albums\":[" + ids.stream()
+                    .map(id -> "{\"id\":\"" + id + "\",\"name\":\"Album " + id + "\",\"release_date\":\"2020-01-01\","
+                            + "\"total_tracks\":10,\"images\":[{\"url\":\"https://i.scdn.co/" + id + "\"}]}")
+                    .collect(Collectors.joining(",")) + "]}");
+        }
+        if (path.equals("/v1/tracks")) {
+            return MockSpotifyApi.json("{\"tracks\":[" + ids.stream()
+                    .map(id -> "{\"id\":\"" + id + "\",\"name\":\"Track " + id + "\",\"duration_ms\":180000}")
+                    .collect(Collectors.joining(",")) + "]}");
+        }
+        return MockSpotifyApi.json("{\"artists\":[" + ids.stream()
+                .map(id -> "{\"id\":\"" + id + "\",\"name\":\"Artist " + id + "\",\"genres\":[\"genre of " + id + "\"]}")
+                .collect(Collectors.joining(",")) + "]}");
+    }
+    
+    /**
+     * Number of ids in each request made to the given endpoint, largest first
+     */
+    private static List<Integer> batchSizes(MockSpotifyApi api, String path) {
+        return api.requests().stream()
+                .filter(request -> request.getRequestUrl().encodedPath().equals(path))
+                .map(request -> request.getRequestUrl().queryParameter("ids").split(",").length)
+                .sorted((a, b) -> b - a)
+                .collect(Collectors.toList());
+    }
+    
+    static Track track(String id, String artistId) {
+        Artist artist = new Artist();
+        artist.setId(artistId);
+        artist.setName("Artist " + artistId);
+        Track track = new Track();
+        track.setId(id);
+        track.setName("Track " + id);
+        track.setArtists(List.of(artist));
+        return track;
+    }
+}
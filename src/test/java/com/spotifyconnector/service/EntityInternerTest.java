@@ -0,0 +1,44 @@
+package com.spotifyconnector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Track;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class EntityInternerTest {
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new EntityInterner());
+    
+    @Test
+    void sharesOneInstancePerArtistAlbumAndImage() throws Exception {
+        Track first = objectMapper.readValue(track("t1"), Track.class);
+        Track second = objectMapper.readValue(track("t2"), Track.class);
+        
+        assertNotSame(first, second);
+        assertSame(first.getArtists().get(0), second.getArtists().get(0));
+        assertSame(first.getAlbum(), second.getAlbum());
+        assertSame(first.getAlbum().getImages().get(0), second.getAlbum().getImages().get(0));
+    }
+    
+    @Test
+    void replacesTheCanonicalInstanceWithARicherCopy() throws Exception {
+        Artist simplified = objectMapper.readValue("{\"id\":\"a1\",\"name\":\"Artist\"}", Artist.class);
+        Artist full = objectMapper.readValue("{\"id\":\"a1\",\"name\":\"Artist\",\"genres\":[\"jazz\"]}", Artist.class);
+        Artist later = objectMapper.readValue("{\"id\":\"a1\",\"name\":\"Artist\"}", Artist.class);
+        
+        assertNotSame(simplified, full);
+        assertNull(simplified.getGenres());
+        assertSame(full, later);
+        assertEquals("jazz", later.getGenres().get(0));
+    }
+    
+    private static String track(String id) {
+        return "{\"id\":\"" + id + "\",\"name\":\"Track " + id + "\","
+                + "\"artists\":[{\"id\":\"a1\",\"name\":\"Artist\"}],"
+                + "\"album\":{\"id\":\"al1\",\"name\":\"Album\",\"images\":[{\"url\":\"https://i.scdn.co/al1\"}]}}";
+    }
+}
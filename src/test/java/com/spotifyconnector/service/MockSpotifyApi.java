@@ -0,0 +1,71 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.config.SpotifyConfig;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for the Spotify hosts: every request the client makes, to any host, is sent
+ * to a {@link MockWebServer} and answered by the given handler. Requests are recorded in the
+ * order they arrived.
+ */
+final class MockSpotifyApi implements AutoCloseable {
+    private final MockWebServer server = new MockWebServer();
+    private final List<RecordedRequest> requests = new CopyOnWriteArrayList<>();
+    private final OkHttpClient client;
+    
+    MockSpotifyApi(Function<RecordedRequest, MockResponse> handler) throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                requests.add(request);
+                return handler.apply(request);
+            }
+        });
+        server.start();
+        this.client = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    HttpUrl url = chain.request().url().newBuilder()
+                            .scheme("http")
+                            .host(server.getHostName())
+                            .port(server.getPort())
+                            .build();
+                    return chain.proceed(chain.request().newBuilder().url(url).build());
+                })
+                .build();
+    }
+    
+    OkHttpClient client() {
+        return client;
+    }
+    
+    RequestScheduler scheduler() {
+        return new RequestScheduler(client, SpotifyConfig.getInstance());
+    }
+    
+    SpotifyDataService dataService() {
+        return new SpotifyDataService(scheduler());
+    }
+    
+    List<RecordedRequest> requests() {
+        return requests;
+    }
+    
+    static MockResponse json(String body) {
+        return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+}
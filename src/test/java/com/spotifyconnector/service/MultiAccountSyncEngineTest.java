@@ -0,0 +1,79 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.TokenSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiAccountSyncEngineTest {
+    @BeforeEach
+    void disableHedging() {
+        System.setProperty("spotify.latency.hedging", "false");
+    }
+    
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("spotify.latency.hedging");
+    }
+    
+    @Test
+    void syncsAtMostTheConfiguredNumberOfAccountsAtOnce() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request ->
+                SpotifyDataServiceTest.profile(request.getHeader("Authorization").substring("Bearer token-".length())))) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger mostRunning = new AtomicInteger();
+            RecentlyPlayedSync history = new RecentlyPlayedSync(null, null, null) {
+                @Override
+                public SyncResult sync(String userId, String accessToken) throws IOException {
+                    mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    if (userId.equals("user-3")) {
+                        throw new IOException("history unavailable");
+                    }
+                    return new SyncResult(userId, 1, 0, 0, 0, 0);
+                }
+            };
+            MultiAccountSyncEngine engine = new MultiAccountSyncEngine(api.dataService(), history, 2);
+            SpotifyAuthService authService = new SpotifyAuthService(api.scheduler());
+            List<MultiAccountSyncEngine.Account> accounts = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                accounts.add(new MultiAccountSyncEngine.Account("user-" + i, new TokenManager(authService,
+                        new TokenSet("token-user-" + i, "Bearer", 3600, "refresh-token", null,
+                                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))));
+            }
+            Map<String, String> displayNames = new ConcurrentHashMap<>();
+            try {
+                MultiAccountSyncEngine.SyncReport report = engine.syncAll(accounts,
+                        result -> displayNames.put(result.getUserId(), result.getProfile().getDisplayName()));
+                
+                assertEquals(8, report.getAccounts());
+                assertEquals(7, report.getSucceeded());
+                assertEquals(1, report.getFailed());
+                assertEquals(7, displayNames.size());
+                assertEquals("User user-5", displayNames.get("user-5"));
+                assertEquals(2, mostRunning.get());
+                assertTrue(report.getElapsedMillis() >= 4 * 50);
+            } finally {
+                engine.shutdown();
+                accounts.forEach(account -> account.getTokens().close());
+            }
+        }
+    }
+}
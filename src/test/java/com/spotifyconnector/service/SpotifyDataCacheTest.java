@@ -0,0 +1,53 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.Artist;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class SpotifyDataCacheTest {
+    private static final String TOKEN = "token";
+    
+    @BeforeEach
+    void expireEntriesImmediately() {
+        System.setProperty("spotify.latency.hedging", "false");
+        System.setProperty("spotify.cache.ttlSeconds", "0");
+    }
+    
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("spotify.latency.hedging");
+        System.clearProperty("spotify.cache.ttlSeconds");
+    }
+    
+    @Test
+    void servesStaleEntriesWhileRefreshingAndReportsChanges() throws Exception {
+        AtomicInteger total = new AtomicInteger(2);
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> request.getPath().startsWith("/v1/me/top/artists")
+                ? SpotifyDataServiceTest.topArtists(request, total.get())
+                : SpotifyDataServiceTest.profile("user-1"))) {
+            SpotifyDataCache cache = new SpotifyDataCache(api.dataService());
+            SpotifyDataService.TopItemsResponse<Artist> first = cache.getTopArtists(TOKEN, "short_term", 10, false, null);
+            assertEquals(2, first.getItems().size());
+            
+            total.set(3);
+            CompletableFuture<SpotifyDataService.TopItemsResponse<Artist>> changed = new CompletableFuture<>();
+            SpotifyDataService.TopItemsResponse<Artist> stale = cache.getTopArtists(TOKEN, "short_term", 10, false,
+                    changed::complete);
+            
+            assertNotSame(first, stale);
+            assertEquals(2, stale.getItems().size());
+            assertEquals(3, changed.get(5, TimeUnit.SECONDS).getItems().size());
+            assertEquals(3, cache.getTopArtists(TOKEN, "short_term", 10, false, null).getItems().size());
+            // The token's owner is looked up once
+            assertEquals(1, api.requests().stream().filter(request -> request.getPath().equals("/v1/me")).count());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.UserProfile;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpotifyDataServiceTest {
+    private static final String TOKEN = "token";
+    
+    @BeforeEach
+    void disableHedging() {
+        System.setProperty("spotify.latency.hedging", "false");
+    }
+    
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("spotify.latency.hedging");
+    }
+    
+    @Test
+    void pagesThroughTopItemsInRankOrder() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> topArtists(request, 120))) {
+            SpotifyDataService service = api.dataService();
+            
+            List<Artist> artists = service.getTopArtists(TOKEN, "medium_term", 200).getItems();
+            
+            assertEquals(120, artists.size());
+            for (int i = 0; i < artists.size(); i++) {
+                assertEquals("artist-" + i, artists.get(i).getId());
+            }
+            assertEquals(List.of("0/50", "50/50", "100/20"), pages(api));
+        }
+    }
+    
+    @Test
+    void stopsPagingAtTheRequestedLimit() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> topArtists(request, 120))) {
+            SpotifyDataService service = api.dataService();
+            
+            SpotifyDataService.TopItemsResponse<Artist> response = service.getTopArtists(TOKEN, "medium_term", 70);
+            
+            assertEquals(70, response.getItems().size());
+            assertEquals("artist-69", response.getItems().get(69).getId());
+            assertEquals(120, response.getTotal());
+            assertEquals(List.of("0/50", "50/20"), pages(api));
+        }
+    }
+    
+    @Test
+    void answersNotModifiedWithAFreshCopyOfThePreviousResponse() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> "\"v1\"".equals(request.getHeader("If-None-Match"))
+                ? new MockResponse().setResponseCode(304)
+                : profile("user-1").setHeader("ETag", "\"v1\""))) {
+            SpotifyDataService service = api.dataService();
+            
+            UserProfile first = service.getUserProfile(TOKEN);
+            first.setDisplayName("changed");
+            UserProfile second = service.getUserProfile(TOKEN);
+            
+            assertNotSame(first, second);
+            assertEquals("User user-1", second.getDisplayName());
+            assertEquals(2, api.requests().size());
+            assertEquals("\"v1\"", api.requests().get(1).getHeader("If-None-Match"));
+        }
+    }
+    
+    @Test
+    void sharesOneCallBetweenConcurrentCallersAndHandsEachItsOwnCopy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> {
+            await(release);
+            return profile("user-1");
+        })) {
+            SpotifyDataService service = api.dataService();
+            
+            CompletableFuture<UserProfile> cancelled = service.getUserProfileAsync(TOKEN);
+            CompletableFuture<UserProfile> first = service.getUserProfileAsync(TOKEN);
+            CompletableFuture<UserProfile> second = service.getUserProfileAsync(TOKEN);
+            cancelled.cancel(true);
+            release.countDown();
+            
+            UserProfile firstProfile = first.get(5, TimeUnit.SECONDS);
+            UserProfile secondProfile = second.get(5, TimeUnit.SECONDS);
+            assertNotSame(firstProfile, secondProfile);
+            assertEquals("user-1", secondProfile.getId());
+            assertEquals(1, api.requests().size());
+        }
+    }
+    
+    @Test
+    void keepsAtMostTheConfiguredNumberOfPagesInFlight() throws Exception {
+        System.setProperty("spotify.paging.parallelism", "2");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+                return topArtists(request, 300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new MockResponse().setResponseCode(500);
+            } finally {
+                running.decrementAndGet();
+            }
+        })) {
+            SpotifyDataService service = api.dataService();
+            
+            List<Artist> artists = service.getTopArtistsAsync(TOKEN, "long_term", 300).get(10, TimeUnit.SECONDS).getItems();
+            
+            assertEquals(300, artists.size());
+            assertEquals("artist-299", artists.get(299).getId());
+            assertEquals(6, api.requests().size());
+            assertTrue(mostRunning.get() <= 2);
+        } finally {
+            System.clearProperty("spotify.paging.parallelism");
+        }
+    }
+    
+    @Test
+    void cancellingPagedResultStopsFetchingPages() throws Exception {
+        System.setProperty("spotify.paging.parallelism", "1");
+        CountDownLatch release = new CountDownLatch(1);
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> {
+            if (!"0".equals(request.getRequestUrl().queryParameter("offset"))) {
+                await(release);
+            }
+            return topArtists(request, 200);
+        })) {
+            SpotifyDataService service = api.dataService();
+            
+            CompletableFuture<SpotifyDataService.TopItemsResponse<Artist>> result =
+                    service.getTopArtistsAsync(TOKEN, "long_term", 200);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (api.requests().size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            result.cancel(true);
+            release.countDown();
+            Thread.sleep(200);
+            
+            assertTrue(result.isCancelled());
+            assertEquals(2, api.requests().size());
+        } finally {
+            System.clearProperty("spotify.paging.parallelism");
+        }
+    }
+    
+    static MockResponse profile(String id) {
+        return MockSpotifyApi.json("{\"id\":\"" + id + "\",\"display_name\":\"User " + id + "\"}");
+    }
+    
+    /**
+     * A page of a top artists ranking of the given size, as the endpoint would return it
+     */
+    static MockResponse topArtists(RecordedRequest request, int total) {
+        int offset = request.getRequestUrl().queryParameter("offset") != null
+                ? Integer.parseInt(request.getRequestUrl().queryParameter("offset")) : 0;
+        int limit = Integer.parseInt(request.getRequestUrl().queryParameter("limit"));
+        StringBuilder items = new StringBuilder();
+        for (int i = offset; i < Math.min(total, offset + limit); i++) {
+            items.append(items.length() > 0 ? "," : "")
+                    .append("{\"id\":\"artist-").append(i).append("\",\"name\":\"Artist ").append(i).append("\"}");
+        }
+        return MockSpotifyApi.json("{\"items\":[" + items + "],\"total\":" + total
+                + ",\"limit\":" + limit + ",\"offset\":" + offset + "}");
+    }
+    
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Offset and limit of every page requested, by offset
+     */
+    private static List<String> pages(MockSpotifyApi api) {
+        return api.requests().stream()
+                .map(request -> {
+                    String offset = request.getRequestUrl().queryParameter("offset");
+                    return (offset != null ? offset : "0") + "/" + request.getRequestUrl().queryParameter("limit");
+                })
+                .sorted((a, b) -> Integer.compare(Integer.parseInt(a.split("/")[0]), Integer.parseInt(b.split("/")[0])))
+                .collect(Collectors.toList());
+    }
+}
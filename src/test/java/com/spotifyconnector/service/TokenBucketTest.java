@@ -0,0 +1,61 @@
+package com.spotifyconnector.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+    
+    @Test
+    void reservesWithoutWaitWhileTokensLast() {
+        TokenBucket bucket = new TokenBucket(3, 1);
+        
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(0, bucket.reserve(1));
+        assertEquals(0, bucket.reserve(1));
+    }
+    
+    @Test
+    void queuedReservationsWaitInArrivalOrder() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        bucket.reserve(1);
+        
+        long first = bucket.reserve(1);
+        long second = bucket.reserve(1);
+        
+        // One token per second: the second waiter is served a full interval after the first
+        assertTrue(first > TimeUnit.MILLISECONDS.toNanos(500) && first <= TimeUnit.SECONDS.toNanos(1));
+        assertTrue(second - first > TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(bucket.getAvailableTokens() < -1.5);
+    }
+    
+    @Test
+    void tryAcquireNeverGoesNegative() {
+        TokenBucket bucket = new TokenBucket(2, 0.001);
+        
+        assertTrue(bucket.tryAcquire(2));
+        assertFalse(bucket.tryAcquire(1));
+        assertTrue(bucket.getAvailableTokens() >= 0);
+    }
+    
+    @Test
+    void refillsOverTimeUpToCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(2, 1000);
+        bucket.reserve(2);
+        
+        Thread.sleep(50);
+        
+        assertEquals(2, bucket.getAvailableTokens(), 1e-9);
+    }
+    
+    @Test
+    void rejectsNonPositiveRates() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+    }
+}
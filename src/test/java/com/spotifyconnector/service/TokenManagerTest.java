@@ -0,0 +1,84 @@
+package com.spotifyconnector.service;
+
+import com.spotifyconnector.model.TokenSet;
+import okhttp3.mockwebserver.MockResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenManagerTest {
+    @BeforeEach
+    void disableHedging() {
+        System.setProperty("spotify.latency.hedging", "false");
+    }
+    
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("spotify.latency.hedging");
+    }
+    
+    @Test
+    void coalescesConcurrentRefreshesIntoOneTokenRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> {
+            SpotifyDataServiceTest.await(release);
+            return tokens("new-token");
+        })) {
+            TokenManager manager = new TokenManager(new SpotifyAuthService(api.scheduler()),
+                    new TokenSet("old-token", "Bearer", 3600, "refresh-token", null, System.currentTimeMillis() - 1));
+            try {
+                ExecutorService threads = Executors.newFixedThreadPool(8);
+                List<Callable<CompletableFuture<TokenSet>>> callers = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    callers.add(i % 2 == 0 ? manager::refresh : () -> manager.onUnauthorized("old-token"));
+                }
+                List<Future<CompletableFuture<TokenSet>>> refreshes = threads.invokeAll(callers);
+                threads.shutdown();
+                release.countDown();
+                
+                for (Future<CompletableFuture<TokenSet>> refresh : refreshes) {
+                    assertEquals("new-token", refresh.get().get(5, TimeUnit.SECONDS).getAccessToken());
+                }
+                assertEquals("new-token", manager.getAccessToken());
+                assertEquals(1, api.requests().size());
+                assertEquals("/api/token", api.requests().get(0).getPath());
+                // The response carried no refresh token, so the stored one is kept
+                assertEquals("refresh-token", manager.getTokens().getRefreshToken());
+            } finally {
+                manager.close();
+            }
+        }
+    }
+    
+    @Test
+    void doesNotRefreshWhenTheRejectedTokenWasAlreadyReplaced() throws Exception {
+        try (MockSpotifyApi api = new MockSpotifyApi(request -> tokens("newer-token"))) {
+            TokenManager manager = new TokenManager(new SpotifyAuthService(api.scheduler()),
+                    new TokenSet("new-token", "Bearer", 3600, "refresh-token", null,
+                            System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+            try {
+                assertEquals("new-token", manager.getAccessTokenAfterRejection("old-token"));
+                assertEquals("new-token", manager.getAccessToken());
+                assertEquals(0, api.requests().size());
+            } finally {
+                manager.close();
+            }
+        }
+    }
+    
+    private static MockResponse tokens(String accessToken) {
+        return MockSpotifyApi.json("{\"access_token\":\"" + accessToken + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}");
+    }
+}
@@ -0,0 +1,121 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.Album;
+import com.spotifyconnector.model.Artist;
+import com.spotifyconnector.model.Context;
+import com.spotifyconnector.model.PlayHistoryItem;
+import com.spotifyconnector.model.Track;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ColumnarBlockCodecTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void roundTripsPlaysWithMetadataFromTheDictionary() throws Exception {
+        List<PlayHistoryItem> plays = List.of(
+                new PlayHistoryItem(track("t1", "a1"), "2024-01-01T10:00:00.000Z", playlist("p1")),
+                new PlayHistoryItem(track("t2", "a1"), "2024-01-01T10:03:30.250Z", null),
+                new PlayHistoryItem(null, "2024-01-01T09:59:00.000Z", playlist("p1")));
+        
+        try (EntityDictionary dictionary = new EntityDictionary(directory.resolve("dictionary.dat"))) {
+            ColumnarBlockCodec codec = new ColumnarBlockCodec(dictionary);
+            byte[] block = codec.encode(plays);
+            List<PlayHistoryItem> decoded = codec.decode(block, plays.size());
+            
+            assertEquals(3, decoded.size());
+            for (int i = 0; i < plays.size(); i++) {
+                assertEquals(plays.get(i).getPlayedAt(), decoded.get(i).getPlayedAt());
+                assertEquals(plays.get(i).getTrackId(), decoded.get(i).getTrackId());
+            }
+            Track track = decoded.get(0).getTrack();
+            assertEquals("Track t1", track.getName());
+            assertEquals("Album of t1", track.getAlbum().getName());
+            assertEquals("Artist a1", track.getArtists().get(0).getName());
+            assertEquals("spotify:playlist:p1", decoded.get(0).getContext().getUri());
+            assertNull(decoded.get(1).getContext());
+            assertNull(decoded.get(2).getTrack());
+        }
+    }
+    
+    @Test
+    void decodesOnlyTheRequestedRange() throws Exception {
+        List<PlayHistoryItem> plays = List.of(
+                new PlayHistoryItem(track("t1", "a1"), "2024-01-01T10:00:00.000Z", null),
+                new PlayHistoryItem(track("t2", "a1"), "2024-01-01T11:00:00.000Z", null),
+                new PlayHistoryItem(track("t3", "a2"), "2024-01-01T12:00:00.000Z", null));
+        
+        try (EntityDictionary dictionary = new EntityDictionary(directory.resolve("dictionary.dat"))) {
+            ColumnarBlockCodec codec = new ColumnarBlockCodec(dictionary);
+            byte[] block = codec.encode(plays);
+            
+            List<PlayHistoryItem> range = codec.decodeRange(block, plays.size(),
+                    plays.get(1).getPlayedAtMillis(), plays.get(2).getPlayedAtMillis() - 1);
+            
+            assertEquals(1, range.size());
+            assertEquals("t2", range.get(0).getTrackId());
+        }
+    }
+    
+    @Test
+    void dictionarySurvivesReopenAndHandsOutCopies() throws Exception {
+        Path file = directory.resolve("dictionary.dat");
+        int id;
+        try (EntityDictionary dictionary = new EntityDictionary(file)) {
+            id = dictionary.trackId(track("t1", "a1"));
+            assertEquals(id, dictionary.trackId(track("t1", "a1")));
+        }
+        try (EntityDictionary dictionary = new EntityDictionary(file)) {
+            Track first = dictionary.track(id);
+            first.setName("changed");
+            first.getAlbum().setName("changed");
+            Track second = dictionary.track(id);
+            
+            assertNotSame(first, second);
+            assertEquals("Track t1", second.getName());
+            assertEquals("Album of t1", second.getAlbum().getName());
+            assertEquals(id, dictionary.lookup(EntityDictionary.Kind.TRACK, "t1"));
+            assertEquals("t1", dictionary.catalogId(id));
+        }
+    }
+    
+    @Test
+    void dictionaryReadsEvictedAndUnflushedEntriesFromTheFile() throws Exception {
+        try (EntityDictionary dictionary = new EntityDictionary(directory.resolve("dictionary.dat"), 1)) {
+            int first = dictionary.trackId(track("t1", "a1"));
+            int second = dictionary.trackId(track("t2", "a2"));
+            
+            assertEquals("Artist a2", dictionary.track(second).getArtists().get(0).getName());
+            assertEquals("Track t1", dictionary.track(first).getName());
+            assertEquals("Album of t1", dictionary.track(first).getAlbum().getName());
+            assertEquals("Album of t2", dictionary.track(second).getAlbum().getName());
+        }
+    }
+    
+    static Track track(String id, String artistId) {
+        Artist artist = new Artist();
+        artist.setId(artistId);
+        artist.setName("Artist " + artistId);
+        Album album = new Album();
+        album.setId("album-" + id);
+        album.setName("Album of " + id);
+        Track track = new Track();
+        track.setId(id);
+        track.setName("Track " + id);
+        track.setArtists(List.of(artist));
+        track.setAlbum(album);
+        return track;
+    }
+    
+    private static Context playlist(String id) {
+        return new Context("playlist", "https://api.spotify.com/v1/playlists/" + id, null, "spotify:playlist:" + id);
+    }
+}
@@ -0,0 +1,93 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryCompactorTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void mergesUnderfilledAndLateBlocksInTimeOrder() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            Set<String> expected = new TreeSet<>();
+            for (int page = 0; page < 40; page++) {
+                // Every fifth page holds plays from long before the pages around it
+                int first = page % 5 == 4 ? page : 1000 + page * 5;
+                List<PlayHistoryItem> plays = SegmentedPlayHistoryStoreTest.plays(first, first + 5);
+                store.append("user", plays);
+                for (PlayHistoryItem play : plays) {
+                    expected.add(play.getPlayedAtMillis() + "/" + play.getTrackId());
+                }
+            }
+            long sizeBefore = store.withLog("user", PlayLog::sizeBytes);
+            
+            assertEquals(1, new HistoryCompactor(store).runOnce());
+            
+            List<PlayHistoryItem> plays = store.getRange("user", Long.MIN_VALUE, Long.MAX_VALUE);
+            Set<String> actual = new TreeSet<>();
+            long previous = Long.MIN_VALUE;
+            for (PlayHistoryItem play : plays) {
+                assertTrue(play.getPlayedAtMillis() >= previous);
+                previous = play.getPlayedAtMillis();
+                actual.add(play.getPlayedAtMillis() + "/" + play.getTrackId());
+            }
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), store.count("user"));
+            assertTrue(store.withLog("user", PlayLog::sizeBytes) < sizeBefore);
+            assertEquals(expected.stream().filter(key -> key.endsWith("/t3")).count(),
+                    store.getPlayTimes("user", EntityKind.TRACK, "t3").length);
+            assertEquals(0, new HistoryCompactor(store).runOnce());
+        }
+    }
+    
+    @Test
+    void dropsPlaysOlderThanTheRetentionPeriod() throws Exception {
+        String property = "spotify.store.retentionDays.retained";
+        System.setProperty(property, "30");
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            long now = System.currentTimeMillis();
+            List<PlayHistoryItem> plays = new ArrayList<>();
+            for (int day = 60; day > 0; day--) {
+                plays.add(SegmentedPlayHistoryStoreTest.play("t" + (day % 3), now - TimeUnit.DAYS.toMillis(day)));
+            }
+            store.append("retained", plays);
+            
+            assertEquals(1, new HistoryCompactor(store).runOnce());
+            
+            List<PlayHistoryItem> kept = store.getRange("retained", Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(29, kept.size());
+            assertTrue(kept.get(0).getPlayedAtMillis() >= now - TimeUnit.DAYS.toMillis(30));
+            assertEquals(29, store.count("retained"));
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+    
+    @Test
+    void closesLogsItOpenedItself() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            for (int page = 0; page < 20; page++) {
+                store.append("idle", SegmentedPlayHistoryStoreTest.plays(page * 5, page * 5 + 5));
+            }
+        }
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            assertEquals(1, new HistoryCompactor(store).runOnce());
+            
+            assertFalse(store.isOpen("idle"));
+            assertEquals(100, store.count("idle"));
+        }
+    }
+}
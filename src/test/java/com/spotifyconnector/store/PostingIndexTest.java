@@ -0,0 +1,111 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingIndexTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void listsBlocksOfTracksAcrossFlushes() throws Exception {
+        try (PostingIndex index = open()) {
+            index.add(0, new int[] {1, 2, 1}, 3);
+            index.add(1, new int[] {2, -1}, 2);
+            index.flush();
+            index.add(2, new int[] {1}, 1);
+            
+            assertArrayEquals(new int[] {0, 2}, index.blocks(new int[] {1}));
+            assertArrayEquals(new int[] {0, 1}, index.blocks(new int[] {2}));
+            assertArrayEquals(new int[] {0, 1, 2}, index.blocks(new int[] {1, 2}));
+            assertArrayEquals(new int[0], index.blocks(new int[] {7, -1}));
+            assertEquals(6, index.indexed());
+        }
+    }
+    
+    @Test
+    void reopensWithoutReplayingAndDropsUncommittedPages() throws Exception {
+        try (PostingIndex index = open()) {
+            for (int block = 0; block < 3000; block++) {
+                index.add(block, new int[] {block % 3, 5000}, 2);
+            }
+        }
+        Files.write(directory.resolve("postings.dat"), new byte[] {0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+        
+        try (PostingIndex index = open()) {
+            assertEquals(6000, index.indexed());
+            assertEquals(1000, index.blocks(new int[] {1}).length);
+            assertEquals(2999, index.blocks(new int[] {0, 2})[1999]);
+            assertEquals(3000, index.blocks(new int[] {5000}).length);
+            
+            index.clear();
+            assertEquals(0, index.indexed());
+            assertArrayEquals(new int[0], index.blocks(new int[] {1}));
+        }
+    }
+    
+    @Test
+    void keepsHeadsOnlyForPlayedTracksAndRewritesTheHeadLog() throws Exception {
+        try (PostingIndex index = open()) {
+            for (int block = 0; block < 1500; block++) {
+                index.add(block, new int[] {2_000_000 + block % 2, 7}, 2);
+                index.flush();
+            }
+        }
+        assertTrue(Files.size(directory.resolve("postings.idx")) < 16 * 1024);
+        
+        try (PostingIndex index = open()) {
+            assertEquals(3000, index.indexed());
+            assertEquals(750, index.blocks(new int[] {2_000_001}).length);
+            assertEquals(1500, index.blocks(new int[] {7}).length);
+            assertArrayEquals(new int[0], index.blocks(new int[] {3}));
+        }
+    }
+    
+    @Test
+    void storeAnswersPerEntityQueriesFromListedBlocks() throws Exception {
+        Path storeDirectory = directory.resolve("store");
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            String track = i % 10 == 0 ? "t1" : i % 10 == 1 ? "t2" : "other" + (i % 4);
+            plays.add(new PlayHistoryItem(ColumnarBlockCodecTest.track(track, track.startsWith("t") ? "a1" : "a2"),
+                    Instant.ofEpochMilli(SegmentedPlayHistoryStoreTest.at(i)).toString(), null));
+        }
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(storeDirectory, false)) {
+            store.append("user", plays.subList(0, 300));
+            store.append("user", plays.subList(300, 600));
+        }
+        
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(storeDirectory, false)) {
+            long[] times = store.getPlayTimes("user", EntityKind.TRACK, "t1");
+            assertEquals(60, times.length);
+            assertEquals(SegmentedPlayHistoryStoreTest.at(0), times[0]);
+            assertEquals(SegmentedPlayHistoryStoreTest.at(590), times[59]);
+            assertEquals(120, store.getPlayTimes("user", EntityKind.ARTIST, "a1").length);
+            assertEquals(60, store.getPlayTimes("user", EntityKind.ALBUM, "album-t2").length);
+            assertEquals(0, store.getPlayTimes("user", EntityKind.TRACK, "missing").length);
+            
+            List<PlayHistoryItem> latest = store.getPlays("user", EntityKind.ARTIST, "a1", 3);
+            assertEquals(3, latest.size());
+            assertEquals(SegmentedPlayHistoryStoreTest.at(591), latest.get(0).getPlayedAtMillis());
+            assertEquals("t1", latest.get(1).getTrackId());
+            assertEquals(SegmentedPlayHistoryStoreTest.at(581), latest.get(2).getPlayedAtMillis());
+        }
+    }
+    
+    private PostingIndex open() throws Exception {
+        return new PostingIndex(directory.resolve("postings.dat"), directory.resolve("postings.idx"));
+    }
+}
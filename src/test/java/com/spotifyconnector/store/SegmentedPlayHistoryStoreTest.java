@@ -0,0 +1,113 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+import com.spotifyconnector.model.Track;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentedPlayHistoryStoreTest {
+    private static final long START = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void appendsOnlyPlaysNotYetStored() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            List<PlayHistoryItem> page = plays(0, 50);
+            
+            assertEquals(50, store.append("user", page));
+            assertEquals(0, store.append("user", page));
+            assertEquals(10, store.append("user", plays(45, 60)));
+            assertEquals(60, store.count("user"));
+        }
+    }
+    
+    @Test
+    void keepsLatePlaysOlderThanEverythingRecent() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            store.append("user", plays(100, 2100));
+            
+            assertEquals(1, store.append("user", List.of(play("late", START + 500))));
+            assertEquals(0, store.append("user", List.of(play("late", START + 500))));
+            assertEquals(0, store.append("user", List.of(play("t" + (100 % 7), at(100)))));
+            assertEquals(2001, store.count("user"));
+        }
+    }
+    
+    @Test
+    void answersRangesInTimeOrder() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            store.append("user", plays(10, 20));
+            store.append("user", plays(0, 10));
+            
+            List<PlayHistoryItem> range = store.getRange("user", at(5), at(14));
+            
+            assertEquals(10, range.size());
+            assertEquals(at(5), range.get(0).getPlayedAtMillis());
+            assertEquals(at(14), range.get(9).getPlayedAtMillis());
+            assertEquals(at(19), store.getRecent("user", 1).get(0).getPlayedAtMillis());
+        }
+    }
+    
+    @Test
+    void cutsOffATornBlockOnReopen() throws Exception {
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            store.append("user", plays(0, 10));
+        }
+        Path segment = directory.resolve("user").resolve("segment-000001.dat");
+        Files.write(segment, new byte[] {0x50, 0x4C, 0x41, 0x59, 2, 0, 0}, StandardOpenOption.APPEND);
+        
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            assertEquals(10, store.count("user"));
+            assertEquals(10, store.append("user", plays(10, 20)));
+            assertEquals(20, store.getRange("user", Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+    
+    @Test
+    void closesTheLeastRecentlyUsedLogBeyondTheLimit() throws Exception {
+        System.setProperty("spotify.store.maxOpenLogs", "1");
+        try (SegmentedPlayHistoryStore store = new SegmentedPlayHistoryStore(directory, false)) {
+            store.append("first", plays(0, 10));
+            store.append("second", plays(0, 20));
+            
+            assertFalse(store.isOpen("first"));
+            assertTrue(store.isOpen("second"));
+            assertEquals(10, store.count("first"));
+            assertFalse(store.isOpen("second"));
+        } finally {
+            System.clearProperty("spotify.store.maxOpenLogs");
+        }
+    }
+    
+    static List<PlayHistoryItem> plays(int from, int to) {
+        List<PlayHistoryItem> plays = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            plays.add(play("t" + (i % 7), at(i)));
+        }
+        return plays;
+    }
+    
+    static PlayHistoryItem play(String trackId, long playedAtMillis) {
+        Track track = new Track();
+        track.setId(trackId);
+        track.setName("Track " + trackId);
+        return new PlayHistoryItem(track, Instant.ofEpochMilli(playedAtMillis).toString(), null);
+    }
+    
+    static long at(int minute) {
+        return START + minute * 60_000L;
+    }
+}
@@ -0,0 +1,89 @@
+package com.spotifyconnector.store;
+
+import com.spotifyconnector.model.PlayHistoryItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SyncJournalTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void commitsApplyPlaysAndCursor() throws Exception {
+        InMemoryPlayHistoryStore store = new InMemoryPlayHistoryStore();
+        SyncCursorStore cursors = new SyncCursorStore(directory.resolve("cursors.properties"));
+        try (SyncJournal journal = new SyncJournal(directory.resolve("sync.wal"), store, cursors)) {
+            assertEquals(10, journal.commit("user", SegmentedPlayHistoryStoreTest.plays(0, 10), 100));
+            assertEquals(0, journal.commit("user", SegmentedPlayHistoryStoreTest.plays(0, 10), 100));
+            
+            assertEquals(10, store.count("user"));
+            assertEquals(100, cursors.getCursor("user"));
+            assertEquals(2, journal.getCommitCount());
+        }
+        assertEquals(0, Files.size(directory.resolve("sync.wal")));
+    }
+    
+    @Test
+    void replaysCommittedRecordsAfterACrash() throws Exception {
+        Path crashed = directory.resolve("crashed.wal");
+        try (SyncJournal journal = new SyncJournal(directory.resolve("sync.wal"), new InMemoryPlayHistoryStore(),
+                new SyncCursorStore(directory.resolve("lost.properties")))) {
+            journal.commit("user", SegmentedPlayHistoryStoreTest.plays(0, 10), 100);
+            journal.commit("other", SegmentedPlayHistoryStoreTest.plays(5, 8), 200);
+            // The log as it was on disk when the process died, before any checkpoint
+            Files.copy(directory.resolve("sync.wal"), crashed);
+        }
+        
+        InMemoryPlayHistoryStore store = new InMemoryPlayHistoryStore();
+        SyncCursorStore cursors = new SyncCursorStore(directory.resolve("cursors.properties"));
+        try (SyncJournal journal = new SyncJournal(crashed, store, cursors)) {
+            assertEquals(10, store.count("user"));
+            assertEquals(3, store.count("other"));
+            assertEquals(100, cursors.getCursor("user"));
+            assertEquals(200, cursors.getCursor("other"));
+            // Replayed records are checkpointed right away
+            assertEquals(0, Files.size(crashed));
+        }
+        assertEquals(200, new SyncCursorStore(directory.resolve("cursors.properties")).getCursor("other"));
+    }
+    
+    @Test
+    void cutsOffATornOrCorruptTail() throws Exception {
+        Path crashed = directory.resolve("crashed.wal");
+        try (SyncJournal journal = new SyncJournal(directory.resolve("sync.wal"), new InMemoryPlayHistoryStore(),
+                new SyncCursorStore(directory.resolve("lost.properties")))) {
+            journal.commit("user", SegmentedPlayHistoryStoreTest.plays(0, 10), 100);
+            journal.commit("user", SegmentedPlayHistoryStoreTest.plays(10, 20), 200);
+            Files.copy(directory.resolve("sync.wal"), crashed);
+        }
+        // Flip a payload byte of the second record, then leave half a header behind it
+        long firstRecordEnd = firstRecordLength(crashed);
+        byte[] bytes = Files.readAllBytes(crashed);
+        bytes[(int) firstRecordEnd + 12] ^= 0x01;
+        Files.write(crashed, bytes);
+        Files.write(crashed, new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+        
+        InMemoryPlayHistoryStore store = new InMemoryPlayHistoryStore();
+        SyncCursorStore cursors = new SyncCursorStore(directory.resolve("cursors.properties"));
+        try (SyncJournal journal = new SyncJournal(crashed, store, cursors)) {
+            List<PlayHistoryItem> replayed = store.getRange("user", Long.MIN_VALUE, Long.MAX_VALUE);
+            
+            assertEquals(10, replayed.size());
+            assertEquals(100, cursors.getCursor("user"));
+            assertEquals(0, Files.size(crashed));
+        }
+    }
+    
+    private static long firstRecordLength(Path file) throws Exception {
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file), 0, 4);
+        return 8 + header.getInt();
+    }
+}
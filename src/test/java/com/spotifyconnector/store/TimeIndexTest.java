@@ -0,0 +1,66 @@
+package com.spotifyconnector.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeIndexTest {
+    @TempDir
+    Path directory;
+    
+    @Test
+    void findsFirstBlockReachingATime() throws Exception {
+        try (TimeIndex index = new TimeIndex(directory.resolve("index.idx"))) {
+            index.append(100, 199, 1, 0, 10);
+            index.append(200, 299, 1, 500, 10);
+            index.append(300, 399, 2, 0, 10);
+            
+            assertEquals(0, index.firstReaching(Long.MIN_VALUE));
+            assertEquals(0, index.firstReaching(199));
+            assertEquals(1, index.firstReaching(200));
+            assertEquals(2, index.firstReaching(399));
+            assertEquals(3, index.firstReaching(400));
+            assertEquals(-1, index.lastDisordered());
+        }
+    }
+    
+    @Test
+    void keepsRunningMaximumAcrossLatePlays() throws Exception {
+        try (TimeIndex index = new TimeIndex(directory.resolve("index.idx"))) {
+            index.append(100, 500, 1, 0, 10);
+            index.append(50, 80, 1, 100, 2);
+            index.append(600, 700, 1, 200, 10);
+            
+            assertEquals(500, index.runningMax(1));
+            assertEquals(50, index.minPlayedAt(1));
+            assertEquals(1, index.lastDisordered());
+            assertEquals(0, index.firstReaching(60));
+            assertEquals(2, index.firstReaching(501));
+        }
+    }
+    
+    @Test
+    void reopensWithEntriesAndGrowsPastInitialCapacity() throws Exception {
+        Path file = directory.resolve("index.idx");
+        try (TimeIndex index = new TimeIndex(file)) {
+            for (int entry = 0; entry < 3000; entry++) {
+                index.append(entry * 10L, entry * 10L + 9, entry / 1000 + 1, entry * 100L, entry % 7 + 1);
+            }
+        }
+        try (TimeIndex index = new TimeIndex(file)) {
+            assertEquals(3000, index.size());
+            assertEquals(2999 * 10L + 9, index.runningMax(2999));
+            assertEquals(3, index.segment(2999));
+            assertEquals(2999 * 100L, index.offset(2999));
+            assertEquals(2999 % 7 + 1, index.count(2999));
+            assertEquals(1500, index.firstReaching(15_000));
+            
+            index.clear();
+            assertEquals(0, index.size());
+            assertEquals(0, index.firstReaching(0));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.spotifyconnector.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VarIntsTest {
+    
+    @Test
+    void roundTripsUnsignedAndSignedValues() throws IOException {
+        long[] unsigned = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE};
+        long[] signed = {0, -1, 1, -64, 64, Long.MIN_VALUE, Long.MAX_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : unsigned) {
+            VarInts.writeUnsigned(out, value);
+        }
+        for (long value : signed) {
+            VarInts.writeSigned(out, value);
+        }
+        
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (long value : unsigned) {
+            assertEquals(value, VarInts.readUnsigned(in));
+        }
+        for (long value : signed) {
+            assertEquals(value, VarInts.readSigned(in));
+        }
+        assertEquals(0, in.remaining());
+    }
+    
+    @Test
+    void smallValuesTakeOneByte() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(out, 127);
+        VarInts.writeSigned(out, -64);
+        
+        assertEquals(2, out.size());
+    }
+    
+    @Test
+    void rejectsTruncatedAndOutOfRangeValues() {
+        assertThrows(IOException.class, () -> VarInts.readUnsigned(ByteBuffer.wrap(new byte[] {(byte) 0x80})));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(out, Integer.MAX_VALUE + 1L);
+        assertThrows(IOException.class, () -> VarInts.readUnsignedInt(ByteBuffer.wrap(out.toByteArray())));
+    }
+}